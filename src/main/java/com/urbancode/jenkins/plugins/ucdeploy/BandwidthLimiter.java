@@ -0,0 +1,201 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class caps the rate at which file data is sent to a UCD server with a
+ * token bucket. One bucket per server is shared by all uploads from this node,
+ * so concurrent connections and concurrent builds on an agent stay under the
+ * server's cap together. A job with a limit of its own gets a bucket nested
+ * under the server's bucket, so the job is held to its own rate without
+ * changing the cap of any other upload, and never exceeds the server's cap.
+ *
+ */
+public class BandwidthLimiter {
+    /* Largest write that is passed through in one piece, keeping the sending rate smooth */
+    private static final int MAX_CHUNK = 64 * 1024;
+
+    private static final ConcurrentMap<String, BandwidthLimiter> limiters =
+            new ConcurrentHashMap<String, BandwidthLimiter>();
+
+    private BandwidthLimiter parent;
+    private long bytesPerSecond;
+    private long capacity;
+    private double tokens;
+    private long lastRefill;
+
+    private BandwidthLimiter(long bytesPerSecond, BandwidthLimiter parent) {
+        this.parent = parent;
+        this.bytesPerSecond = bytesPerSecond;
+        // allow a burst of up to one second of data
+        this.capacity = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Get the limiter shared by all uploads from this node to a server, setting
+     * its rate to the limit configured for the server
+     *
+     * @param serverUrl The URL of the UCD server
+     * @param megabytesPerSecond The maximum rate of the server in MB/s
+     * @return The shared limiter
+     */
+    public static BandwidthLimiter forServer(String serverUrl, double megabytesPerSecond) {
+        long bytesPerSecond = toBytesPerSecond(megabytesPerSecond);
+        BandwidthLimiter limiter = limiters.get(serverUrl);
+
+        if (limiter == null) {
+            BandwidthLimiter newLimiter = new BandwidthLimiter(bytesPerSecond, null);
+            limiter = limiters.putIfAbsent(serverUrl, newLimiter);
+            if (limiter == null) {
+                return newLimiter;
+            }
+        }
+
+        limiter.setBytesPerSecond(bytesPerSecond);
+        return limiter;
+    }
+
+    /**
+     * Create a limiter of one upload, nested under the limiter of its server
+     *
+     * @param serverLimiter The limiter shared by uploads to the server, or null if the server has no limit
+     * @param megabytesPerSecond The maximum rate of the upload in MB/s
+     * @return The limiter of the upload
+     */
+    public static BandwidthLimiter forUpload(BandwidthLimiter serverLimiter, double megabytesPerSecond) {
+        return new BandwidthLimiter(toBytesPerSecond(megabytesPerSecond), serverLimiter);
+    }
+
+    /**
+     * Get the rate uploads through this limiter are held to
+     *
+     * @return The rate of this bucket, or of the server's bucket when that is lower
+     */
+    public long getBytesPerSecond() {
+        long rate;
+
+        synchronized (this) {
+            rate = bytesPerSecond;
+        }
+
+        return parent != null ? Math.min(rate, parent.getBytesPerSecond()) : rate;
+    }
+
+    /**
+     * Change the rate of the bucket, keeping any debt already owed by waiting uploads
+     *
+     * @param bytesPerSecond The maximum rate in bytes per second
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.capacity = bytesPerSecond;
+        this.tokens = Math.min(tokens, capacity);
+    }
+
+    /**
+     * Take tokens for bytes about to be sent, waiting until this bucket and the
+     * server's bucket allow it
+     *
+     * @param bytes The number of bytes to send
+     * @return The number of nanoseconds spent waiting
+     * @throws InterruptedException
+     */
+    public long acquire(int bytes) throws InterruptedException {
+        long waitNanos = take(bytes);
+
+        if (parent != null) {
+            waitNanos += parent.acquire(bytes);
+        }
+
+        return waitNanos;
+    }
+
+    private long take(int bytes) throws InterruptedException {
+        long waitNanos;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+            lastRefill = now;
+
+            // reserve the bytes now, callers queue behind each other by the resulting debt
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / bytesPerSecond) : 0L;
+        }
+
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+
+        return waitNanos;
+    }
+
+    /**
+     * Wrap a stream so that writes to it are held to the rate of this limiter
+     *
+     * @param out The stream to wrap
+     * @param stats The collector of the time spent waiting, or null
+     * @return The throttled stream
+     */
+    public OutputStream wrap(OutputStream out, TransferStats stats) {
+        return new ThrottledOutputStream(out, stats);
+    }
+
+    private static long toBytesPerSecond(double megabytesPerSecond) {
+        return Math.max(1L, (long) (megabytesPerSecond * 1024 * 1024));
+    }
+
+    private class ThrottledOutputStream extends FilterOutputStream {
+        private TransferStats stats;
+
+        public ThrottledOutputStream(OutputStream out, TransferStats stats) {
+            super(out);
+            this.stats = stats;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throttle(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, MAX_CHUNK);
+                throttle(chunk);
+                out.write(b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        private void throttle(int bytes) throws IOException {
+            try {
+                long waited = acquire(bytes);
+                if (waited > 0 && stats != null) {
+                    stats.addThrottledNanos(waited);
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload bandwidth");
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import com.urbancode.jenkins.plugins.ucdeploy.DeliveryHelper.Push;
+import com.urbancode.jenkins.plugins.ucdeploy.UCDeployPublisher.UserBlock;
+import com.urbancode.jenkins.plugins.ucdeploy.VersionHelper.VersionBlock;
+
+/**
+ * This class publishes versions of several components in one step. The
+ * components are created, tagged, pushed and linked in parallel. Each task and
+ * each of its uploads borrow their connections from a pool shared by the whole
+ * batch, so connections opened for one component are reused by the next.
+ *
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class BatchHelper {
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private UCDeploySite udSite;
+    private UserBlock altUser;
+    private File workspace;
+    private HashCache hashCache;
+    private TaskListener listener;
+    private EnvVars envVars;
+    private Map<String, String> exportedVars = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+    private List<TransferReport> transferReports = new ArrayList<TransferReport>();
+
+    /**
+     * The outcome of publishing one component
+     */
+    private static class ComponentResult {
+        private String component;
+        private volatile String status = "SKIPPED";
+        private volatile String message = "";
+        private volatile long elapsedMillis = 0;
+
+        public ComponentResult(String component) {
+            this.component = component;
+        }
+    }
+
+    public BatchHelper(
+            UCDeploySite udSite,
+            UserBlock altUser,
+            File workspace,
+            HashCache hashCache,
+            TaskListener listener,
+            EnvVars envVars)
+    {
+        this.udSite = udSite;
+        this.altUser = altUser;
+        this.workspace = workspace;
+        this.hashCache = hashCache;
+        this.listener = listener;
+        this.envVars = envVars;
+    }
+
+    /**
+     * Publish a version of every component in the batch
+     *
+     * @param components The blocks of the components to publish
+     * @param parallelism The maximum number of components published at once
+     * @param failFast Whether to cancel the remaining components after the first failure
+     * @param linkName The name to give the component version links
+     * @param linkUrl The url to link to the component versions
+     * @return The transfer reports of the pushed versions
+     * @throws AbortException if a component failed, after the results of the completed components are collected
+     */
+    public List<TransferReport> publish(
+            List<VersionBlock> components,
+            int parallelism,
+            boolean failFast,
+            final String linkName,
+            final String linkUrl)
+    throws AbortException {
+        int threads = Math.max(1, Math.min(parallelism, components.size()));
+        // each running component holds one client, the rest are left for its uploads
+        final ClientPool clientPool = new ClientPool(udSite, altUser, threads * (1 + getMaxUploadConnections(components)));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<List<TransferReport>> completionService =
+                new ExecutorCompletionService<List<TransferReport>>(executor);
+        Map<Future<List<TransferReport>>, ComponentResult> results =
+                new LinkedHashMap<Future<List<TransferReport>>, ComponentResult>();
+        String failure = null;
+
+        listener.getLogger().println("Publishing " + components.size() + " components, " + threads + " at a time");
+
+        try {
+            for (final VersionBlock component : components) {
+                final ComponentResult result = new ComponentResult(envVars.expand(component.getComponentName()));
+
+                Future<List<TransferReport>> future = completionService.submit(new Callable<List<TransferReport>>() {
+                    @Override
+                    public List<TransferReport> call() throws Exception {
+                        long startTime = System.currentTimeMillis();
+                        // a started component that never completes was cancelled by a failure elsewhere
+                        result.status = "CANCELLED";
+                        DefaultHttpClient client = clientPool.borrow();
+                        VersionHelper versionHelper = new VersionHelper(udSite,
+                                                                        altUser,
+                                                                        client,
+                                                                        workspace,
+                                                                        hashCache,
+                                                                        listener,
+                                                                        new EnvVars(envVars));
+                        versionHelper.setClientPool(clientPool);
+
+                        try {
+                            listener.getLogger().println("[" + result.component + "] Publishing component version");
+                            versionHelper.createVersion(component, linkName, linkUrl);
+
+                            return versionHelper.getTransferReports();
+                        }
+                        finally {
+                            result.elapsedMillis = System.currentTimeMillis() - startTime;
+                            exportedVars.putAll(versionHelper.getExportedVars());
+                            clientPool.release(client);
+                        }
+                    }
+                });
+                results.put(future, result);
+            }
+
+            for (int completed = 0; completed < components.size(); completed++) {
+                Future<List<TransferReport>> future = completionService.take();
+                ComponentResult result = results.get(future);
+
+                if (!collectResult(future, result)) {
+                    if (failure == null) {
+                        failure = result.component;
+                    }
+                    if (failFast) {
+                        // keep the reports and variables of components that finished before the cancel
+                        Future<List<TransferReport>> done;
+                        while ((done = completionService.poll()) != null) {
+                            collectResult(done, results.get(done));
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            throw new AbortException("Interrupted while publishing components: " + ex.getMessage());
+        }
+        finally {
+            executor.shutdownNow();
+            clientPool.shutdown();
+        }
+
+        logResults(results.values());
+
+        if (failure != null) {
+            throw new AbortException("Failed to publish " + countFailed(results.values()) + " of " + components.size() +
+                                     " components, starting with '" + failure + "'");
+        }
+
+        return getTransferReports();
+    }
+
+    /**
+     * Get the transfer reports of the versions pushed so far, including those
+     * published before a failure
+     *
+     * @return The transfer reports
+     */
+    public List<TransferReport> getTransferReports() {
+        return new ArrayList<TransferReport>(transferReports);
+    }
+
+    /**
+     * Get the environment variables set while publishing, to add to the build
+     *
+     * @return The map of variable names to values
+     */
+    public Map<String, String> getExportedVars() {
+        synchronized (exportedVars) {
+            return new LinkedHashMap<String, String>(exportedVars);
+        }
+    }
+
+    /**
+     * Get the largest number of upload connections of any component in the batch
+     */
+    private int getMaxUploadConnections(List<VersionBlock> components) {
+        int maxConnections = 1;
+
+        for (VersionBlock component : components) {
+            if (component.getDelivery() instanceof Push) {
+                try {
+                    int connections = VersionHelper.readConcurrency(
+                            envVars.expand(((Push)component.getDelivery()).getPushConcurrency()));
+                    maxConnections = Math.max(maxConnections, connections);
+                }
+                catch (AbortException ex) {
+                    // reported by the push of the component itself
+                }
+            }
+        }
+
+        return maxConnections;
+    }
+
+    /**
+     * Record the outcome of a completed component
+     *
+     * @return true if the component version was published
+     */
+    private boolean collectResult(Future<List<TransferReport>> future, ComponentResult result)
+    throws InterruptedException {
+        try {
+            transferReports.addAll(future.get());
+            result.status = "SUCCEEDED";
+            return true;
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            result.status = "FAILED";
+            result.message = String.valueOf(cause.getMessage());
+            listener.getLogger().println("[" + result.component + "] Failed to publish component version: " +
+                                         result.message);
+            return false;
+        }
+    }
+
+    private void logResults(Iterable<ComponentResult> results) {
+        listener.getLogger().println("Component results:");
+
+        for (ComponentResult result : results) {
+            StringBuilder line = new StringBuilder(String.format("    %-9s  %s", result.status, result.component));
+
+            if (!result.status.equals("SKIPPED")) {
+                line.append(String.format(" (%.1f s)", result.elapsedMillis / 1000.0));
+            }
+            if (!result.message.isEmpty()) {
+                line.append(": ").append(result.message);
+            }
+
+            listener.getLogger().println(line.toString());
+        }
+    }
+
+    private static int countFailed(Iterable<ComponentResult> results) {
+        int failed = 0;
+
+        for (ComponentResult result : results) {
+            if (result.status.equals("FAILED")) {
+                failed++;
+            }
+        }
+
+        return failed;
+    }
+}
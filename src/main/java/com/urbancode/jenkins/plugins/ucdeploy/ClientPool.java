@@ -0,0 +1,101 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import com.urbancode.jenkins.plugins.ucdeploy.UCDeployPublisher.UserBlock;
+
+/**
+ * This class provides a bounded pool of HTTP clients for a single UCD site.
+ * A DefaultHttpClient is not safe to share between threads, so each concurrent
+ * request borrows its own client (and with it its own connection) and returns it
+ * when finished so the connection can be reused by the next request.
+ *
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class ClientPool {
+    private UCDeploySite udSite;
+    private UserBlock altUser;
+    private int maxClients;
+    private int createdClients = 0;
+    private BlockingQueue<DefaultHttpClient> idleClients = new LinkedBlockingQueue<DefaultHttpClient>();
+    private List<DefaultHttpClient> allClients = new ArrayList<DefaultHttpClient>();
+
+    public ClientPool(UCDeploySite udSite, UserBlock altUser, int maxClients) {
+        this.udSite = udSite;
+        this.altUser = altUser;
+        this.maxClients = Math.max(1, maxClients);
+    }
+
+    /**
+     * Borrow a client from the pool, creating a new one if the pool has not yet
+     * reached its maximum size, otherwise waiting for one to be released
+     *
+     * @return An HTTP client owned by the caller until it is released
+     * @throws InterruptedException
+     */
+    public DefaultHttpClient borrow() throws InterruptedException {
+        DefaultHttpClient client = idleClients.poll();
+
+        if (client != null) {
+            return client;
+        }
+
+        synchronized (this) {
+            if (createdClients < maxClients) {
+                createdClients++;
+                client = createClient();
+                allClients.add(client);
+                return client;
+            }
+        }
+
+        return idleClients.take();
+    }
+
+    /**
+     * Return a borrowed client to the pool
+     *
+     * @param client The client to return
+     */
+    public void release(DefaultHttpClient client) {
+        if (client != null) {
+            idleClients.offer(client);
+        }
+    }
+
+    /**
+     * Close the connections of every client created by this pool
+     */
+    public synchronized void shutdown() {
+        for (DefaultHttpClient client : allClients) {
+            client.getConnectionManager().shutdown();
+        }
+        allClients.clear();
+        idleClients.clear();
+    }
+
+    public int getMaxClients() {
+        return maxClients;
+    }
+
+    private DefaultHttpClient createClient() {
+        if (altUser != null) {
+            return udSite.getTempClient(altUser.getAltUsername(), altUser.getAltPassword());
+        }
+        else {
+            return udSite.getTempClient(udSite.getUser(), udSite.getPassword());
+        }
+    }
+}
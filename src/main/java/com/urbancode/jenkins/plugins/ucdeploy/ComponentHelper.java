@@ -13,10 +13,27 @@ import hudson.model.TaskListener;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import javax.ws.rs.core.UriBuilder;
+
+import org.apache.http.impl.client.DefaultHttpClient;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
@@ -25,6 +42,7 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import com.urbancode.jenkins.plugins.ucdeploy.DeliveryHelper.DeliveryBlock;
 import com.urbancode.jenkins.plugins.ucdeploy.DeliveryHelper.Pull;
 import com.urbancode.jenkins.plugins.ucdeploy.DeliveryHelper.Push;
+import com.urbancode.jenkins.plugins.ucdeploy.UCDeployPublisher.UserBlock;
 import com.urbancode.ud.client.ApplicationClient;
 import com.urbancode.ud.client.ComponentClient;
 
@@ -36,6 +54,37 @@ import com.urbancode.ud.client.ComponentClient;
  */
 @SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
 public class ComponentHelper {
+    /* Seconds the UUID of an existing component is remembered */
+    public static final long COMPONENT_ID_TTL = Long.getLong(
+            ComponentHelper.class.getName() + ".componentIdTtl", 600L);
+
+    /* Seconds a missing component is remembered, kept short as another build may create it */
+    public static final long MISSING_COMPONENT_TTL = Long.getLong(
+            ComponentHelper.class.getName() + ".missingComponentTtl", 30L);
+
+    /* Seconds the component names of an application are trusted before they are loaded again */
+    public static final long APPLICATION_COMPONENTS_TTL = Long.getLong(
+            ComponentHelper.class.getName() + ".applicationComponentsTtl", 300L);
+
+    /* Seconds the tags of a component are trusted before they are read again */
+    public static final long COMPONENT_TAGS_TTL = Long.getLong(
+            ComponentHelper.class.getName() + ".componentTagsTtl", 600L);
+
+    /* Stands in for a component known not to exist */
+    private static final UUID MISSING = new UUID(0L, 0L);
+
+    /* Lookups shared by every build, carried between the controller and the nodes by ServerLookups */
+    static final ExpiringCache<String, UUID> componentIds =
+            new ExpiringCache<String, UUID>(COMPONENT_ID_TTL, TimeUnit.SECONDS);
+    static final ExpiringCache<String, Set<String>> applicationComponents =
+            new ExpiringCache<String, Set<String>>(APPLICATION_COMPONENTS_TTL, TimeUnit.SECONDS);
+    static final ExpiringCache<String, Set<String>> componentTags =
+            new ExpiringCache<String, Set<String>>(COMPONENT_TAGS_TTL, TimeUnit.SECONDS);
+
+    private URI ucdUrl;
+    private DefaultHttpClient httpClient;
+    private UCDeploySite udSite;
+    private UserBlock altUser;
     private ApplicationClient appClient;
     private ComponentClient compClient;
     private TaskListener listener;
@@ -53,14 +102,57 @@ public class ComponentHelper {
         this.envVars = envVars;
     }
 
+    /**
+     * @param ucdUrl The URL of the UCD server, used to share component lookups with other builds
+     * @param appClient The client for application requests
+     * @param compClient The client for component requests
+     * @param listener The build listener
+     * @param envVars The environment of the build
+     */
+    public ComponentHelper(URI ucdUrl, ApplicationClient appClient, ComponentClient compClient, TaskListener listener,
+            EnvVars envVars) {
+        this(appClient, compClient, listener, envVars);
+        this.ucdUrl = ucdUrl;
+    }
+
+    /**
+     * Set the connections used to read the current state of a component and to
+     * apply several changes to it at once when reconciling
+     *
+     * @param httpClient The client used for requests not made by the uDeployRestClient
+     * @param udSite The UCD site to open additional connections to, or null to apply every change in turn
+     * @param altUser The alternative user to run as, or null to use the site user
+     */
+    public void setConnections(DefaultHttpClient httpClient, UCDeploySite udSite, UserBlock altUser) {
+        this.httpClient = httpClient;
+        this.udSite = udSite;
+        this.altUser = altUser;
+    }
+
+    /**
+     * A change made to a component while reconciling
+     */
+    private interface Mutation {
+        String getDescription();
+
+        void apply(DefaultHttpClient client) throws Exception;
+    }
+
     public static class CreateComponentBlock implements Serializable {
         private String componentTemplate;
         private String componentApplication;
+        private Boolean componentReconcile;
 
-        @DataBoundConstructor
         public CreateComponentBlock(String componentTemplate, String componentApplication) {
+            this(componentTemplate, componentApplication, false);
+        }
+
+        @DataBoundConstructor
+        public CreateComponentBlock(String componentTemplate, String componentApplication,
+                Boolean componentReconcile) {
             this.componentTemplate = componentTemplate;
             this.componentApplication = componentApplication;
+            this.componentReconcile = componentReconcile;
         }
 
         public String getComponentTemplate() {
@@ -78,6 +170,14 @@ public class ComponentHelper {
                 return "";
             }
         }
+
+        public Boolean getComponentReconcile() {
+            if (componentReconcile != null) {
+                return componentReconcile;
+            } else {
+                return false;
+            }
+        }
     }
 
     public void createComponent(String name, CreateComponentBlock componentBlock, DeliveryBlock deliveryBlock)
@@ -129,17 +229,15 @@ public class ComponentHelper {
         }
 
         // check if comopnent already exists
-        UUID componentUUID = null;
-        try {
-            listener.getLogger().println("Checking the UCD server for an existing component '" + componentName + "'");
-            componentUUID = compClient.getComponentUUID(componentName);
+        UUID componentUUID = getCachedComponentUUID(componentName);
+        if (componentUUID == null) {
+            componentUUID = lookupComponentUUID(componentName);
+        } else if (componentUUID.equals(MISSING)) {
+            listener.getLogger().println("The component was recently found not to exist on the UCD server");
+            componentUUID = null;
+        } else {
             listener.getLogger()
                     .println("The component already exists on the UCD server with UUID '" + componentUUID + "'");
-        } catch (IOException ex) {
-            listener.getLogger().println("The component does not exist on the UCD server");
-        } catch (JSONException ex) {
-            throw new AbortException(
-                    "An error occurred while checking the UCD server for the component : " + ex.getMessage());
         }
 
         // create new component
@@ -148,10 +246,18 @@ public class ComponentHelper {
                 listener.getLogger().println("Creating new component '" + componentName + "'");
                 componentUUID = compClient.createComponent(componentName, description, sourceConfigPlugin,
                         defaultVersionType, templateName, templateVersion, importAutomatically, useVfs, properties);
+                cacheComponentUUID(componentName, componentUUID);
                 listener.getLogger().println("Successfully created the component with UUID '" + componentUUID + "'");
             } catch (IOException ex) {
-                throw new AbortException("Failed to create the component: " + ex.getMessage());
+                invalidateComponentUUID(componentName);
+
+                // another build may have created the component since it was found missing
+                componentUUID = lookupComponentUUID(componentName);
+                if (componentUUID == null) {
+                    throw new AbortException("Failed to create the component: " + ex.getMessage());
+                }
             } catch (JSONException ex) {
+                invalidateComponentUUID(componentName);
                 throw new AbortException(
                         "An error occurred while processing the JSON object for a new component: " + ex.getMessage());
             }
@@ -177,28 +283,11 @@ public class ComponentHelper {
         String application = envVars.expand(componentBlock.getComponentApplication());
         if (!application.isEmpty()) {
             // check for component
-            boolean componentExists = false;
-            try {
-                listener.getLogger().println("Checking the UCD server for existing component '" + componentName
-                        + "' in " + "application '" + application + "'");
-                JSONArray serverComponents = appClient.getApplicationComponents(application);
-                for (int i = 0; i < serverComponents.length(); i++) {
-                    JSONObject serverComponent = serverComponents.getJSONObject(i);
-                    String serverComponentName = serverComponent.getString("name");
-                    if (componentName.equals(serverComponentName)) {
-                        componentExists = true;
-                    }
-                }
-            } catch (IOException ex) {
-                throw new AbortException(
-                        "An error occurred while retrieving application components : " + ex.getMessage());
-            } catch (JSONException ex) {
-                throw new AbortException(
-                        "An error occurred while processing the JSON object for the application components: "
-                                + ex.getMessage());
-            }
+            listener.getLogger().println("Checking the UCD server for existing component '" + componentName
+                    + "' in " + "application '" + application + "'");
+            Set<String> memberNames = getApplicationComponentNames(application);
 
-            if (componentExists) {
+            if (memberNames.contains(componentName)) {
                 listener.getLogger().println("Component already exists in the application, does not need to be added");
             }
 
@@ -208,8 +297,11 @@ public class ComponentHelper {
                     listener.getLogger()
                             .println("Adding component '" + componentName + "' to application '" + application + "'");
                     appClient.addComponentToApplication(application, componentName);
+                    memberNames.add(componentName);
                     listener.getLogger().println("Successfully added component");
                 } catch (IOException ex) {
+                    // the cached names may be stale, load them again next time
+                    invalidateApplicationComponentNames(application);
                     throw new AbortException(
                             "An error occurred while adding the component to the application : " + ex.getMessage());
                 }
@@ -217,11 +309,456 @@ public class ComponentHelper {
         }
     }
 
-    public void addTag(String name, String tag) throws AbortException {
+    /**
+     * Bring an existing component in line with its settings, reading its current
+     * state once and only sending the changes that are needed. A component that
+     * does not exist yet is created as usual.
+     *
+     * @param name The name of the component
+     * @param componentBlock The settings of the component
+     * @param deliveryBlock The delivery settings of the component
+     * @param tag The tag the component should have, or an empty string for none
+     * @throws AbortException
+     */
+    public void reconcileComponent(
+            String name,
+            CreateComponentBlock componentBlock,
+            DeliveryBlock deliveryBlock,
+            String tag)
+    throws AbortException {
+        final String componentName = envVars.expand(name);
+        final String application = envVars.expand(componentBlock.getComponentApplication());
+
+        if (deliveryBlock == null) {
+            throw new AbortException("You must specify a Delivery Type.");
+        }
+
+        listener.getLogger().println("Reading the current state of component '" + componentName + "'");
+        JSONObject componentJson = getComponentInfo(componentName);
+
+        if (componentJson == null) {
+            listener.getLogger().println("The component does not exist on the UCD server");
+            createComponent(name, componentBlock, deliveryBlock);
+            if (tag != null && !tag.isEmpty()) {
+                addTag(componentName, tag);
+            }
+            return;
+        }
+
+        List<Mutation> mutations = new ArrayList<Mutation>();
+
+        // source properties
+        if (deliveryBlock.getDeliveryType() == DeliveryBlock.DeliveryType.Pull) {
+            Pull pullBlock = (Pull) deliveryBlock;
+            Map<String, String> properties =
+                    DeliveryBlock.mapProperties(envVars.expand(pullBlock.getPullSourceProperties()));
+            Map<String, String> currentProperties = getComponentPropValues(componentJson);
+            final Map<String, String> changedProperties = new LinkedHashMap<String, String>();
+
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                if (currentProperties == null || !entry.getValue().equals(currentProperties.get(entry.getKey()))) {
+                    changedProperties.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            if (!changedProperties.isEmpty()) {
+                // the properties share one property sheet, so they are written one after another
+                mutations.add(new Mutation() {
+                    @Override
+                    public String getDescription() {
+                        return "set component properties " + changedProperties.keySet();
+                    }
+
+                    @Override
+                    public void apply(DefaultHttpClient client) throws Exception {
+                        ComponentClient componentClient = new ComponentClient(ucdUrl, client);
+
+                        for (Map.Entry<String, String> entry : changedProperties.entrySet()) {
+                            componentClient.setComponentProperty(componentName, entry.getKey(), entry.getValue(), false);
+                        }
+                    }
+                });
+            }
+        }
+
+        // application membership
+        if (!application.isEmpty()) {
+            final Set<String> memberNames = getApplicationComponentNames(application);
+
+            if (!memberNames.contains(componentName)) {
+                mutations.add(new Mutation() {
+                    @Override
+                    public String getDescription() {
+                        return "add component to application '" + application + "'";
+                    }
+
+                    @Override
+                    public void apply(DefaultHttpClient client) throws Exception {
+                        try {
+                            new ApplicationClient(ucdUrl, client).addComponentToApplication(application, componentName);
+                        } catch (IOException ex) {
+                            invalidateApplicationComponentNames(application);
+                            throw ex;
+                        }
+                        memberNames.add(componentName);
+                    }
+                });
+            }
+        }
+
+        // tag
+        if (tag != null && !tag.isEmpty()) {
+            Set<String> tags = getComponentTags(componentName);
+
+            if (tags == null || !tags.contains(tag)) {
+                mutations.add(createTagMutation(componentName, tag, tags));
+            }
+        }
+
+        if (mutations.isEmpty()) {
+            listener.getLogger().println("Component '" + componentName + "' is up to date");
+        } else {
+            listener.getLogger().println("Applying " + mutations.size() + " changes to component '" + componentName + "'");
+            applyMutations(mutations);
+            listener.getLogger().println("Successfully reconciled component '" + componentName + "'");
+        }
+    }
+
+    /**
+     * Read the details of a component, including its id and tags
+     *
+     * @param componentName The name of the component
+     * @return The component, or null if it does not exist
+     * @throws AbortException
+     */
+    private JSONObject getComponentInfo(String componentName) throws AbortException {
+        UUID cachedUUID = getCachedComponentUUID(componentName);
+
+        if (cachedUUID != null && cachedUUID.equals(MISSING)) {
+            return null;
+        }
+
+        URI uri = UriBuilder.fromUri(ucdUrl).path("cli").path("component").path("info")
+                .queryParam("component", componentName).build();
+        JSONObject componentJson;
+        try {
+            componentJson = new JSONObject(RestHelper.executeGet(httpClient, uri));
+            cacheComponentUUID(componentName, UUID.fromString(componentJson.getString("id")));
+            cacheComponentTags(componentName, componentJson);
+        } catch (RestHelper.StatusException ex) {
+            // only remember the component as missing when the server says so, not on any other failure
+            if (ex.getStatusCode() == 404 || String.valueOf(ex.getMessage()).contains("No component")) {
+                cacheComponentUUID(componentName, null);
+                return null;
+            }
+            throw new AbortException("Failed to acquire component '" + componentName + "': " + ex.getMessage());
+        } catch (IOException ex) {
+            throw new AbortException("Failed to acquire component '" + componentName + "': " + ex.getMessage());
+        } catch (JSONException ex) {
+            throw new AbortException(
+                    "An error occurred while processing the JSON object for the component : " + ex.getMessage());
+        }
+
+        return componentJson;
+    }
+
+    /**
+     * Read the values on the property sheet of a component
+     *
+     * @param componentJson The component
+     * @return The map of property names to values, or null if they could not be read
+     */
+    private Map<String, String> getComponentPropValues(JSONObject componentJson) {
+        Map<String, String> propValues = new HashMap<String, String>();
+
+        try {
+            String sheetPath = "components/" + componentJson.getString("id") + "/propSheet";
+            JSONObject propSheet = componentJson.optJSONObject("propSheet");
+            if (propSheet != null && !propSheet.optString("path", "").isEmpty()) {
+                sheetPath = propSheet.getString("path");
+            }
+
+            // property sheet paths are addressed with '&' in place of '/', at the latest sheet version
+            URI uri = UriBuilder.fromUri(ucdUrl).path("property").path("propSheet").path("{sheet}")
+                    .build(sheetPath.replace('/', '&') + ".-1");
+            JSONArray properties = new JSONObject(RestHelper.executeGet(httpClient, uri)).optJSONArray("properties");
+            if (properties != null) {
+                for (int i = 0; i < properties.length(); i++) {
+                    JSONObject property = properties.getJSONObject(i);
+                    propValues.put(property.getString("name"), property.optString("value", ""));
+                }
+            }
+        } catch (IOException ex) {
+            listener.getLogger().println("[Warning] Unable to read the component properties, setting all of them: "
+                    + ex.getMessage());
+            return null;
+        } catch (JSONException ex) {
+            listener.getLogger().println("[Warning] Unable to read the component properties, setting all of them: "
+                    + ex.getMessage());
+            return null;
+        }
+
+        return propValues;
+    }
+
+    /**
+     * Get the tags of a component, reading them from the component the first time
+     * and sharing them with other builds until they expire
+     *
+     * @param componentName The name of the component
+     * @return The modifiable set of tag names, or null if they could not be read
+     */
+    private Set<String> getComponentTags(String componentName) {
+        if (ucdUrl == null || httpClient == null) {
+            return null;
+        }
+
+        Set<String> tags = componentTags.get(getCacheKey(componentName));
+        if (tags != null) {
+            return tags;
+        }
+
+        URI uri = UriBuilder.fromUri(ucdUrl).path("cli").path("component").path("info")
+                .queryParam("component", componentName).build();
         try {
-            compClient.addTagToComponent(name, tag);
+            return cacheComponentTags(componentName, new JSONObject(RestHelper.executeGet(httpClient, uri)));
         } catch (IOException ex) {
-            throw new AbortException("An error occurred while tagging the component : " + ex.getMessage());
+            return null;
+        } catch (JSONException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Remember the tags listed on a component
+     *
+     * @return The cached set of tag names, or null if the component does not list its tags
+     */
+    private Set<String> cacheComponentTags(String componentName, JSONObject componentJson) {
+        JSONArray tagsJson = componentJson.optJSONArray("tags");
+
+        if (ucdUrl == null || tagsJson == null) {
+            return null;
+        }
+
+        Set<String> tags = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        for (int i = 0; i < tagsJson.length(); i++) {
+            JSONObject tagJson = tagsJson.optJSONObject(i);
+            if (tagJson != null && !tagJson.optString("name", "").isEmpty()) {
+                tags.add(tagJson.optString("name"));
+            }
+        }
+        componentTags.put(getCacheKey(componentName), tags);
+
+        return tags;
+    }
+
+    private Mutation createTagMutation(final String componentName, final String tag, final Set<String> tags) {
+        return new Mutation() {
+            @Override
+            public String getDescription() {
+                return "add tag '" + tag + "' to component '" + componentName + "'";
+            }
+
+            @Override
+            public void apply(DefaultHttpClient client) throws Exception {
+                try {
+                    new ComponentClient(ucdUrl, client).addTagToComponent(componentName, tag);
+                } catch (IOException ex) {
+                    componentTags.invalidate(getCacheKey(componentName));
+                    throw ex;
+                }
+                if (tags != null) {
+                    tags.add(tag);
+                }
+            }
+        };
+    }
+
+    /**
+     * Apply changes to a component, over several connections when the site is known.
+     * Each change must touch a different resource of the component, such as its
+     * property sheet, its tags or its application membership.
+     */
+    private void applyMutations(List<Mutation> mutations) throws AbortException {
+        if (udSite == null || mutations.size() < 2) {
+            for (Mutation mutation : mutations) {
+                listener.getLogger().println("Changing component: " + mutation.getDescription());
+                try {
+                    mutation.apply(httpClient);
+                } catch (Exception ex) {
+                    throw new AbortException("Failed to " + mutation.getDescription() + ": " + ex.getMessage());
+                }
+            }
+            return;
+        }
+
+        int threads = Math.min(PropertyHelper.MAX_CONNECTIONS, mutations.size());
+        final ClientPool clientPool = new ClientPool(udSite, altUser, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<Mutation> completionService = new ExecutorCompletionService<Mutation>(executor);
+
+        try {
+            for (final Mutation mutation : mutations) {
+                listener.getLogger().println("Changing component: " + mutation.getDescription());
+                completionService.submit(new Callable<Mutation>() {
+                    @Override
+                    public Mutation call() throws Exception {
+                        DefaultHttpClient client = clientPool.borrow();
+
+                        try {
+                            mutation.apply(client);
+                        } catch (Exception ex) {
+                            throw new Exception("Failed to " + mutation.getDescription() + ": " + ex.getMessage(), ex);
+                        } finally {
+                            clientPool.release(client);
+                        }
+
+                        return mutation;
+                    }
+                });
+            }
+
+            for (int completed = 0; completed < mutations.size(); completed++) {
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    throw new AbortException(cause.getMessage());
+                }
+            }
+        } catch (InterruptedException ex) {
+            throw new AbortException("Interrupted while changing the component: " + ex.getMessage());
+        } finally {
+            executor.shutdownNow();
+            clientPool.shutdown();
+        }
+    }
+
+    /**
+     * Ask the UCD server for the UUID of a component, remembering the answer for other builds
+     *
+     * @param componentName The name of the component
+     * @return The UUID of the component, or null if it does not exist
+     * @throws AbortException
+     */
+    private UUID lookupComponentUUID(String componentName) throws AbortException {
+        UUID componentUUID = null;
+        try {
+            listener.getLogger().println("Checking the UCD server for an existing component '" + componentName + "'");
+            componentUUID = compClient.getComponentUUID(componentName);
+            cacheComponentUUID(componentName, componentUUID);
+            listener.getLogger()
+                    .println("The component already exists on the UCD server with UUID '" + componentUUID + "'");
+        } catch (IOException ex) {
+            cacheComponentUUID(componentName, null);
+            listener.getLogger().println("The component does not exist on the UCD server");
+        } catch (JSONException ex) {
+            throw new AbortException(
+                    "An error occurred while checking the UCD server for the component : " + ex.getMessage());
+        }
+
+        return componentUUID;
+    }
+
+    /**
+     * Get the names of the components in an application, loading them once and
+     * sharing them with other builds until they expire
+     *
+     * @param application The name of the application
+     * @return The modifiable set of component names
+     * @throws AbortException
+     */
+    private Set<String> getApplicationComponentNames(String application) throws AbortException {
+        String key = ucdUrl == null ? null : getCacheKey(application);
+        Set<String> memberNames = key == null ? null : applicationComponents.get(key);
+
+        if (memberNames != null) {
+            return memberNames;
+        }
+
+        memberNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        try {
+            JSONArray serverComponents = appClient.getApplicationComponents(application);
+            for (int i = 0; i < serverComponents.length(); i++) {
+                memberNames.add(serverComponents.getJSONObject(i).getString("name"));
+            }
+        } catch (IOException ex) {
+            throw new AbortException(
+                    "An error occurred while retrieving application components : " + ex.getMessage());
+        } catch (JSONException ex) {
+            throw new AbortException(
+                    "An error occurred while processing the JSON object for the application components: "
+                            + ex.getMessage());
+        }
+
+        if (key != null) {
+            applicationComponents.put(key, memberNames);
+        }
+
+        return memberNames;
+    }
+
+    private void invalidateApplicationComponentNames(String application) {
+        if (ucdUrl != null) {
+            applicationComponents.invalidate(getCacheKey(application));
+        }
+    }
+
+    private UUID getCachedComponentUUID(String componentName) {
+        if (ucdUrl == null) {
+            return null;
+        }
+
+        return componentIds.get(getCacheKey(componentName));
+    }
+
+    private void cacheComponentUUID(String componentName, UUID componentUUID) {
+        if (ucdUrl == null) {
+            return;
+        }
+
+        if (componentUUID == null) {
+            componentIds.put(getCacheKey(componentName), MISSING, MISSING_COMPONENT_TTL, TimeUnit.SECONDS);
+        } else {
+            componentIds.put(getCacheKey(componentName), componentUUID);
+        }
+    }
+
+    private void invalidateComponentUUID(String componentName) {
+        if (ucdUrl != null) {
+            componentIds.invalidate(getCacheKey(componentName));
+        }
+    }
+
+    private String getCacheKey(String name) {
+        return ServerLookups.getKeyPrefix(ucdUrl, udSite, altUser) + name;
+    }
+
+    /**
+     * Tag a component, skipping the request if the component is known to have the tag already.
+     * The server only takes one tag of one component per request, so tags are never sent in bulk.
+     *
+     * @param name The name of the component
+     * @param tag The tag to add
+     * @throws AbortException
+     */
+    public void addTag(String name, String tag) throws AbortException {
+        if (ucdUrl == null || httpClient == null) {
+            try {
+                compClient.addTagToComponent(name, tag);
+            } catch (IOException ex) {
+                throw new AbortException("An error occurred while tagging the component : " + ex.getMessage());
+            }
+            return;
+        }
+
+        Set<String> tags = getComponentTags(name);
+
+        if (tags != null && tags.contains(tag)) {
+            listener.getLogger().println("Component '" + name + "' already has tag '" + tag + "'");
+        } else {
+            applyMutations(Collections.singletonList(createTagMutation(name, tag, tags)));
         }
     }
 }
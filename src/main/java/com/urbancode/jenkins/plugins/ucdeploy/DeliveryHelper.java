@@ -97,6 +97,12 @@ public class DeliveryHelper implements Serializable {
         private String pushDescription;
         private Boolean pushIncremental;
         private Boolean pushFailedBuild;
+        private String pushConcurrency;
+        private Boolean pushResume;
+        private String pushMaxUploadRate;
+        private Boolean pushPack;
+        private String pushPackThreshold;
+        private Boolean pushDelta;
 
         @DataBoundConstructor
         public Push(
@@ -107,7 +113,13 @@ public class DeliveryHelper implements Serializable {
             String pushProperties,
             String pushDescription,
             Boolean pushIncremental,
-            Boolean pushFailedBuild)
+            Boolean pushFailedBuild,
+            String pushConcurrency,
+            Boolean pushResume,
+            String pushMaxUploadRate,
+            Boolean pushPack,
+            String pushPackThreshold,
+            Boolean pushDelta)
         {
             super(DeliveryType.Push);
             this.pushVersion = pushVersion;
@@ -118,6 +130,12 @@ public class DeliveryHelper implements Serializable {
             this.pushDescription = pushDescription;
             this.pushIncremental = pushIncremental;
             this.pushFailedBuild = pushFailedBuild;
+            this.pushConcurrency = pushConcurrency;
+            this.pushResume = pushResume;
+            this.pushMaxUploadRate = pushMaxUploadRate;
+            this.pushPack = pushPack;
+            this.pushPackThreshold = pushPackThreshold;
+            this.pushDelta = pushDelta;
         }
 
         public String getPushVersion() {
@@ -192,6 +210,60 @@ public class DeliveryHelper implements Serializable {
             }
         }
 
+        public String getPushConcurrency() {
+            if (pushConcurrency != null) {
+                return pushConcurrency;
+            }
+            else {
+                return "";
+            }
+        }
+
+        public Boolean getPushResume() {
+            if (pushResume != null) {
+                return pushResume;
+            }
+            else {
+                return false;
+            }
+        }
+
+        public String getPushMaxUploadRate() {
+            if (pushMaxUploadRate != null) {
+                return pushMaxUploadRate;
+            }
+            else {
+                return "";
+            }
+        }
+
+        public Boolean getPushPack() {
+            if (pushPack != null) {
+                return pushPack;
+            }
+            else {
+                return false;
+            }
+        }
+
+        public String getPushPackThreshold() {
+            if (pushPackThreshold != null) {
+                return pushPackThreshold;
+            }
+            else {
+                return FilePacker.DEFAULT_THRESHOLD;
+            }
+        }
+
+        public Boolean getPushDelta() {
+            if (pushDelta != null) {
+                return pushDelta;
+            }
+            else {
+                return false;
+            }
+        }
+
         @Extension
         public static final DeliveryDescriptor D = new DeliveryDescriptor(Push.class);
     }
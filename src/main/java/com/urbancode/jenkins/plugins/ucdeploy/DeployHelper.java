@@ -18,23 +18,30 @@ import java.io.InputStreamReader;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.model.TaskListener;
-import hudson.slaves.EnvironmentVariablesNodeProperty;
-import hudson.slaves.NodeProperty;
-import hudson.slaves.NodePropertyDescriptor;
-import hudson.util.DescribableList;
-import jenkins.model.Jenkins;
 import javax.ws.rs.core.UriBuilder;
 import java.io.IOException;
+import java.io.Serializable;
 import java.lang.InterruptedException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -43,9 +50,11 @@ import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import com.urbancode.jenkins.plugins.ucdeploy.ProcessHelper;
 import com.urbancode.jenkins.plugins.ucdeploy.ProcessHelper.CreateProcessBlock;
+import com.urbancode.jenkins.plugins.ucdeploy.UCDeployPublisher.UserBlock;
 import com.urbancode.ud.client.ApplicationClient;
 import javax.net.ssl.HttpsURLConnection;
 
@@ -56,19 +65,133 @@ import javax.net.ssl.HttpsURLConnection;
  */
 @SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
 public class DeployHelper {
+    /* Environments deployed to at once when a deploy block lists several */
+    public static final int DEFAULT_DEPLOY_PARALLELISM = 4;
+
+    /* Seconds the id of an application is remembered */
+    public static final long APPLICATION_ID_TTL = Long.getLong(
+            DeployHelper.class.getName() + ".applicationIdTtl", 3600L);
+
+    /* Seconds a version of an application property sheet is kept, a version never changes once written */
+    public static final long APPLICATION_PROP_SHEET_TTL = Long.getLong(
+            DeployHelper.class.getName() + ".applicationPropSheetTtl", 86400L);
+
+    /* Lookups shared by every build in this JVM */
+    private static final ExpiringCache<String, String> applicationIds =
+            new ExpiringCache<String, String>(APPLICATION_ID_TTL, TimeUnit.SECONDS);
+    private static final ExpiringCache<String, Map<String, String>> applicationPropSheets =
+            new ExpiringCache<String, Map<String, String>>(APPLICATION_PROP_SHEET_TTL, TimeUnit.SECONDS);
+
     private ApplicationClient appClient;
+    private DefaultHttpClient httpClient;
     private TaskListener listener;
     private EnvVars envVars;
     private URI ucdUrl;
+    private StatusPoller statusPoller;
+    private UCDeploySite udSite;
+    private UserBlock altUser;
+    private Map<String, String> exportedVars = new LinkedHashMap<String, String>();
+
+    /**
+     * A version added to or removed from a snapshot while composing it
+     */
+    static class SnapshotChange {
+        private String component;
+        private String version;
+        private String versionId;
+
+        private SnapshotChange(String component, String version, String versionId) {
+            this.component = component;
+            this.version = version;
+            this.versionId = versionId;
+        }
+
+        public String getComponent() {
+            return component;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public boolean isRemoval() {
+            return versionId != null;
+        }
+
+        public String getDescription() {
+            if (isRemoval()) {
+                return "Removing past version '" + version + "' of component '" + component + "' from snapshot.";
+            }
+            else {
+                return "Adding component version '" + version + "' of component '" + component + "' to snapshot.";
+            }
+        }
+
+        public void apply(ApplicationClient client, String snapshot, String application) throws IOException {
+            if (isRemoval()) {
+                client.removeVersionFromSnapshot(snapshot, application, versionId, component);
+            }
+            else {
+                client.addVersionToSnapshot(snapshot, application, version, component);
+            }
+        }
+    }
+
+    /**
+     * The outcome of deploying to one environment
+     */
+    private static class EnvironmentResult {
+        private String environment;
+        private volatile String status = "SKIPPED";
+        private volatile String message = "";
+        private volatile String requestId = null;
+        private volatile long elapsedMillis = 0;
+
+        public EnvironmentResult(String environment) {
+            this.environment = environment;
+        }
+    }
 
     public DeployHelper(URI ucdUrl, DefaultHttpClient httpClient, TaskListener listener, EnvVars envVars) {
         this.ucdUrl = ucdUrl;
+        this.httpClient = httpClient;
     	appClient = new ApplicationClient(ucdUrl, httpClient);
         this.listener = listener;
         this.envVars = envVars;
     }
 
-    public static class DeployBlock {
+    /**
+     * Get the environment variables set by the deployment, to add to the build
+     *
+     * @return The map of variable names to values
+     */
+    public Map<String, String> getExportedVars() {
+        return exportedVars;
+    }
+
+    /**
+     * Set the site to open additional connections to, so that snapshot changes
+     * can be made several at a time
+     *
+     * @param udSite The UCD site, or null to make every change in turn
+     * @param altUser The alternative user to run as, or null to use the site user
+     */
+    public void setConnections(UCDeploySite udSite, UserBlock altUser) {
+        this.udSite = udSite;
+        this.altUser = altUser;
+    }
+
+    /**
+     * Wait on deployments through a poller shared with other builds instead of
+     * checking their status from this build
+     *
+     * @param statusPoller The poller of the site, or null to check from this build
+     */
+    public void setStatusPoller(StatusPoller statusPoller) {
+        this.statusPoller = statusPoller;
+    }
+
+    public static class DeployBlock implements Serializable {
         private String deployApp;
         private String deployEnv;
         private String deployProc;
@@ -79,6 +202,8 @@ public class DeployHelper {
         private String deployReqProps;
         private String deployDesc;
         private Boolean deployOnlyChanged;
+        private String deployParallelism;
+        private Boolean deployFailFast;
 
         @DataBoundConstructor
         public DeployBlock(
@@ -203,6 +328,44 @@ public class DeployHelper {
             }
         }
 
+        public String getDeployParallelism() {
+            if (deployParallelism != null) {
+                return deployParallelism;
+            }
+            else {
+                return "";
+            }
+        }
+
+        /**
+         * Set the maximum number of environments deployed to at once
+         *
+         * @param deployParallelism The number of environments, or empty for the default
+         */
+        @DataBoundSetter
+        public void setDeployParallelism(String deployParallelism) {
+            this.deployParallelism = deployParallelism;
+        }
+
+        public Boolean getDeployFailFast() {
+            if (deployFailFast != null) {
+                return deployFailFast;
+            }
+            else {
+                return false;
+            }
+        }
+
+        /**
+         * Set whether the remaining environments are cancelled after the first failure
+         *
+         * @param deployFailFast true to stop at the first failure, false to deploy to every environment
+         */
+        @DataBoundSetter
+        public void setDeployFailFast(Boolean deployFailFast) {
+            this.deployFailFast = deployFailFast;
+        }
+
         public String getMethod(String uri) throws Exception{
             String result ="";
             HttpGet method = new HttpGet(uri);
@@ -230,33 +393,22 @@ public class DeployHelper {
             return result;
         }
 
+        /**
+         * Save a global environment variable
+         *
+         * @deprecated Variables are added to the environment of the run by {@link UCDeployEnvironmentAction}
+         */
+        @Deprecated
         public void createGlobalEnvironmentVariables(String key, String value) {
-
-            Jenkins instance = Jenkins.getInstance();
-
-            DescribableList<NodeProperty<?>, NodePropertyDescriptor> globalNodeProperties = instance.getGlobalNodeProperties();
-            List<EnvironmentVariablesNodeProperty> envVarsNodePropertyList = globalNodeProperties.getAll(EnvironmentVariablesNodeProperty.class);
-
-            EnvironmentVariablesNodeProperty newEnvVarsNodeProperty = null;
-            EnvVars envVars = null;
-
-            if ( envVarsNodePropertyList == null || envVarsNodePropertyList.size() == 0 ) {
-                newEnvVarsNodeProperty = new hudson.slaves.EnvironmentVariablesNodeProperty();
-                globalNodeProperties.add(newEnvVarsNodeProperty);
-                envVars = newEnvVarsNodeProperty.getEnvVars();
-            } else {
-                envVars = envVarsNodePropertyList.get(0).getEnvVars();
-            }
-            envVars.put(key, value);
             try {
-                instance.save();
+                UCDeployEnvironmentAction.saveGlobal(Collections.singletonMap(key, value));
             } catch(Exception e) {
                 System.out.println("Failed to create env variable"+e);
             }
         }
     }
 
-    public static class CreateSnapshotBlock {
+    public static class CreateSnapshotBlock implements Serializable {
         private String snapshotName;
         private Boolean deployWithSnapshot;
         private Boolean includeOnlyDeployVersions;
@@ -291,6 +443,64 @@ public class DeployHelper {
         }
     }
 
+    /**
+     * The state of a requested deployment that is needed to finish it, kept
+     * while the deployment runs
+     */
+    public static class Deployment implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String requestId;
+        private String deployApp;
+        private String deployEnv;
+        private String deployDesc;
+        private String snapshotName;
+        private long startTime;
+
+        public Deployment(
+            String requestId,
+            String deployApp,
+            String deployEnv,
+            String deployDesc,
+            String snapshotName,
+            long startTime)
+        {
+            this.requestId = requestId;
+            this.deployApp = deployApp;
+            this.deployEnv = deployEnv;
+            this.deployDesc = deployDesc;
+            this.snapshotName = snapshotName;
+            this.startTime = startTime;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+
+        public String getDeployApp() {
+            return deployApp;
+        }
+
+        public String getDeployEnv() {
+            return deployEnv;
+        }
+
+        public String getDeployDesc() {
+            return deployDesc;
+        }
+
+        /**
+         * @return The name of the environment snapshot to create once the deployment succeeds, or null for none
+         */
+        public String getSnapshotName() {
+            return snapshotName;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+    }
+
     /**
      * Deploys a version in IBM UrbanCode Deploys
      *
@@ -299,10 +509,221 @@ public class DeployHelper {
      * @throws IOException
      */
     public void runDeployment(DeployBlock deployBlock) throws IOException, JSONException {
+        List<String> environments = readEnvironments(deployBlock);
+
+        if (environments.size() > 1) {
+            runDeployments(deployBlock, environments);
+            return;
+        }
+
+        Deployment deployment = startDeployment(deployBlock);
+        String deploymentResult = "";
+
+        /* Wait for process to finish unless skipping the wait */
+        if (!deployBlock.getSkipWait()) {
+            deploymentResult = awaitDeployment(deployment.getRequestId());
+        }
+        else {
+            listener.getLogger().println("'Skip Wait' option selected. Returning immmediately "
+                    + "without waiting for the UCD process to complete.");
+        }
+
+        finishDeployment(deployBlock, deployment, deploymentResult);
+    }
+
+    /**
+     * Deploy to several environments at once, over a shared pool of connections,
+     * and report the outcome of each environment
+     *
+     * @param deployBlock The DeployBlock containing the structure of the deployments
+     * @param environments The names of the environments to deploy to
+     * @return The result of the deployment to each environment that finished
+     * @throws JSONException
+     * @throws IOException
+     */
+    public Map<String, String> runDeployments(final DeployBlock deployBlock, List<String> environments)
+    throws IOException, JSONException {
         String deployApp = envVars.expand(deployBlock.getDeployApp());
+        String deployProc = envVars.expand(deployBlock.getDeployProc());
+        int parallelism = readParallelism(envVars.expand(deployBlock.getDeployParallelism()));
+        boolean failFast = deployBlock.getDeployFailFast();
+
+        if (deployBlock.createSnapshotChecked()) {
+            throw new AbortException("An environment snapshot can only be created when deploying to a single "
+                    + "environment. Deploy an existing snapshot with 'SNAPSHOT=' instead.");
+        }
+
+        // create the process once, it is shared by every environment
+        if (deployBlock.createProcessChecked()) {
+            ProcessHelper processHelper = new ProcessHelper(appClient, listener, envVars);
+            processHelper.createProcess(deployApp, deployProc, deployBlock.getCreateProcess());
+        }
+
+        // without the site there is a single connection, so the environments are deployed in turn
+        int threads = udSite == null ? 1 : Math.max(1, Math.min(parallelism, environments.size()));
+        final ClientPool clientPool = udSite == null ? null : new ClientPool(udSite, altUser, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<String> completionService = new ExecutorCompletionService<String>(executor);
+        Map<Future<String>, EnvironmentResult> results = new LinkedHashMap<Future<String>, EnvironmentResult>();
+        Map<String, String> deploymentResults = new LinkedHashMap<String, String>();
+        String failure = null;
+
+        listener.getLogger().println("Deploying to " + environments.size() + " environments, " + threads + " at a time");
+
+        try {
+            for (final String environment : environments) {
+                final EnvironmentResult result = new EnvironmentResult(environment);
+
+                Future<String> future = completionService.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        long startTime = System.currentTimeMillis();
+                        // a started environment that never completes was cancelled by a failure elsewhere
+                        result.status = "CANCELLED";
+                        DefaultHttpClient client = clientPool != null ? clientPool.borrow() : null;
+
+                        try {
+                            DeployHelper environmentHelper = DeployHelper.this;
+
+                            if (client != null) {
+                                environmentHelper = new DeployHelper(ucdUrl, client, listener, envVars);
+                                environmentHelper.setStatusPoller(statusPoller);
+                            }
+
+                            listener.getLogger().println("[" + environment + "] Requesting deployment");
+                            Deployment deployment = environmentHelper.requestDeployment(deployBlock, environment);
+                            result.requestId = deployment.getRequestId();
+
+                            if (deployBlock.getSkipWait()) {
+                                return "";
+                            }
+
+                            return environmentHelper.awaitDeployment(deployment.getRequestId());
+                        }
+                        finally {
+                            result.elapsedMillis = System.currentTimeMillis() - startTime;
+                            if (client != null) {
+                                clientPool.release(client);
+                            }
+                        }
+                    }
+                });
+                results.put(future, result);
+            }
+
+            for (int completed = 0; completed < environments.size(); completed++) {
+                Future<String> future = completionService.take();
+                EnvironmentResult result = results.get(future);
+
+                try {
+                    String deploymentResult = future.get();
+                    result.status = deployBlock.getSkipWait() ? "REQUESTED" : "SUCCEEDED";
+                    result.message = deploymentResult;
+                    deploymentResults.put(result.environment, deploymentResult);
+                }
+                catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    result.status = "FAILED";
+                    result.message = String.valueOf(cause.getMessage());
+                    listener.getLogger().println("[" + result.environment + "] Deployment failed: " + result.message);
+
+                    if (failure == null) {
+                        failure = result.environment;
+                    }
+                    if (failFast) {
+                        break;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            throw new AbortException("Interrupted while deploying to environments: " + ex.getMessage());
+        }
+        finally {
+            // stops the waits still running, the requests themselves carry on in UCD
+            executor.shutdownNow();
+            if (clientPool != null) {
+                clientPool.shutdown();
+            }
+        }
+
+        logResults(results.values());
+
+        if (!deploymentResults.isEmpty()) {
+            fetchApplicationProperties(deployApp);
+        }
+
+        if (failure != null) {
+            throw new AbortException("Failed to deploy to " + countFailed(results.values()) + " of "
+                    + environments.size() + " environments, starting with '" + failure + "'");
+        }
+
+        return deploymentResults;
+    }
+
+    /**
+     * Read the environments to deploy to, one per line. A single line is used
+     * as it is, so an environment name may contain commas as before.
+     *
+     * @param deployBlock The DeployBlock containing the structure of the deployment
+     * @return The names of the environments, without duplicates
+     */
+    public List<String> readEnvironments(DeployBlock deployBlock) {
         String deployEnv = envVars.expand(deployBlock.getDeployEnv());
+
+        if (deployEnv == null || !deployEnv.contains("\n")) {
+            return Collections.singletonList(deployEnv);
+        }
+
+        Set<String> environments = new LinkedHashSet<String>();
+
+        for (String environment : deployEnv.split("\\r?\\n")) {
+            if (!environment.trim().isEmpty()) {
+                environments.add(environment.trim());
+            }
+        }
+
+        return new ArrayList<String>(environments);
+    }
+
+    /**
+     * Request a deployment without waiting for it to finish
+     *
+     * @param deployBlock The DeployBlock containing the structure of the deployment
+     * @return The state of the requested deployment, needed to finish it
+     * @throws JSONException
+     * @throws IOException
+     */
+    public Deployment startDeployment(DeployBlock deployBlock) throws IOException, JSONException {
+        List<String> environments = readEnvironments(deployBlock);
+
+        if (environments.size() > 1) {
+            throw new AbortException("Only a single environment can be deployed to by this request, found "
+                    + environments);
+        }
+
+        // create process
+        if (deployBlock.createProcessChecked()) {
+            ProcessHelper processHelper = new ProcessHelper(appClient, listener, envVars);
+            processHelper.createProcess(envVars.expand(deployBlock.getDeployApp()),
+                    envVars.expand(deployBlock.getDeployProc()), deployBlock.getCreateProcess());
+        }
+
+        return requestDeployment(deployBlock, environments.isEmpty() ? "" : environments.get(0));
+    }
+
+    /**
+     * Request the deployment of a block to one environment
+     *
+     * @param deployBlock The DeployBlock containing the structure of the deployment
+     * @param deployEnv The name of the environment to deploy to
+     * @return The state of the requested deployment, needed to finish it
+     * @throws JSONException
+     * @throws IOException
+     */
+    private Deployment requestDeployment(DeployBlock deployBlock, String deployEnv) throws IOException, JSONException {
+        String deployApp = envVars.expand(deployBlock.getDeployApp());
         String deployProc = envVars.expand(deployBlock.getDeployProc());
-        Boolean skipWait = deployBlock.getSkipWait();
         String deployVersions = envVars.expand(deployBlock.getDeployVersions());
         String deployReqProps = envVars.expand(deployBlock.getDeployReqProps());
         String deployDesc = envVars.expand(deployBlock.getDeployDesc());
@@ -310,12 +731,6 @@ public class DeployHelper {
         Boolean doCreateSnapshot = deployBlock.createSnapshotChecked();
         Map<String, String> requestProperties = readProperties(deployReqProps);
 
-        // create process
-        if (deployBlock.createProcessChecked()) {
-            ProcessHelper processHelper = new ProcessHelper(appClient, listener, envVars);
-            processHelper.createProcess(deployApp, deployProc, deployBlock.getCreateProcess());
-        }
-
         // required fields
         if (deployApp.isEmpty()) {
             throw new AbortException("Deploy Application is a required field for deployment.");
@@ -379,31 +794,32 @@ public class DeployHelper {
                 compVersionMap.put(name, versions);
             }
 
-            for (Map.Entry<String, List<String>> entry : componentVersions.entrySet()) {
-                String component = entry.getKey();
-                JSONArray oldVersions = compVersionMap.get(component);
-
-                /* Remove past versions of the deployment component from the snapshot */
-                if (oldVersions != null && oldVersions.length() > 0) {
-                    for (int i = 0 ; i < oldVersions.length(); i++) {
-                        JSONObject oldVersion = oldVersions.getJSONObject(i);
-                        String oldVersionName = oldVersion.getString("name");
-                        String oldVersionId = oldVersion.getString("id");
-
-                        listener.getLogger().println("Removing past version '" + oldVersionName +
-                                "' of component '" + component + "' from snapshot.");
-                        appClient.removeVersionFromSnapshot(snapshot, deployApp, oldVersionId, component);
-                    }
+            Map<String, Map<String, String>> snapshotVersionIds = new HashMap<String, Map<String, String>>();
+            for (Map.Entry<String, JSONArray> entry : compVersionMap.entrySet()) {
+                Map<String, String> versionIds = new LinkedHashMap<String, String>();
+                for (int i = 0; i < entry.getValue().length(); i++) {
+                    JSONObject oldVersion = entry.getValue().getJSONObject(i);
+                    versionIds.put(oldVersion.getString("name"), oldVersion.getString("id"));
                 }
+                snapshotVersionIds.put(entry.getKey(), versionIds);
+            }
 
-                /* Add each version for this component to the snapshot */
+            List<SnapshotChange> changes = diffSnapshot(componentVersions, snapshotVersionIds);
+            int unchanged = 0;
+            for (Map.Entry<String, List<String>> entry : componentVersions.entrySet()) {
+                Map<String, String> versionIds = snapshotVersionIds.get(entry.getKey());
                 for (String version : entry.getValue()) {
-                    listener.getLogger().println("Adding component version '" + version +
-                            "' of component '" + component + "' to snapshot.");
-                    appClient.addVersionToSnapshot(snapshot, deployApp, version, component);
+                    if (versionIds != null && versionIds.containsKey(version)) {
+                        unchanged++;
+                    }
                 }
             }
 
+            if (unchanged > 0) {
+                listener.getLogger().println(unchanged + " component versions are already in the snapshot.");
+            }
+            applySnapshotChanges(snapshot, deployApp, changes);
+
             listener.getLogger().println("Deploying SNAPSHOT '" + snapshot + "'");
         }
         /* Deploy with component versions or a pre-existing snapshot */
@@ -431,42 +847,48 @@ public class DeployHelper {
         listener.getLogger().println("Deployment request id is: '" + appProcUUID.toString() + "'");
         listener.getLogger().println("Deployment is running. Waiting for UCD Server feedback.");
        
-        long startTime = new Date().getTime();
-        boolean processFinished = false;
-        String deploymentResult = "";
-
-        /* Wait for process to finish unless skipping the wait */
-        if (!skipWait) {
-            while (!processFinished) {
-                deploymentResult = checkDeploymentProcessResult(appProcUUID.toString());
-
-                if (!deploymentResult.isEmpty()
-                        && !deploymentResult.equalsIgnoreCase("NONE")
-                        && !deploymentResult.equalsIgnoreCase("SCHEDULED FOR FUTURE")) {
-                    processFinished = true;
+        String snapshotName = null;
+        if (doCreateSnapshot) {
+            snapshotName = envVars.expand(createSnapshot.getSnapshotName());
+        }
 
-                    if (deploymentResult.equalsIgnoreCase("FAULTED") || deploymentResult.equalsIgnoreCase("FAILED TO START") || deploymentResult.equalsIgnoreCase("CANCELED")) {
-                        throw new AbortException("Deployment process failed with result " + deploymentResult);
-                    }
-                }
+        return new Deployment(appProcUUID.toString(), deployApp, deployEnv, deployDesc, snapshotName,
+                new Date().getTime());
+    }
 
-                // give application process more time to complete
-                try {
-                    Thread.sleep(3000);
-                }
-                catch (InterruptedException ex) {
-                    throw new AbortException("Could not wait to check deployment result: " + ex.getMessage());
-                }
-            }
-        }
-        else {
-            listener.getLogger().println("'Skip Wait' option selected. Returning immmediately "
-                    + "without waiting for the UCD process to complete.");
+    /**
+     * Fail if a finished deployment did not succeed
+     *
+     * @param deploymentResult The result of the deployment
+     * @throws AbortException
+     */
+    public static void checkDeploymentResult(String deploymentResult) throws AbortException {
+        if (deploymentResult.equalsIgnoreCase("FAULTED") || deploymentResult.equalsIgnoreCase("FAILED TO START") || deploymentResult.equalsIgnoreCase("CANCELED")) {
+            throw new AbortException("Deployment process failed with result " + deploymentResult);
         }
+    }
+
+    /**
+     * Complete a deployment once it has finished, creating the environment snapshot
+     * and fetching the application properties
+     *
+     * @param deployBlock The DeployBlock containing the structure of the deployment
+     * @param deployment The state of the requested deployment
+     * @param deploymentResult The result of the deployment, or an empty string if it was not waited on
+     * @throws JSONException
+     * @throws IOException
+     */
+    public void finishDeployment(DeployBlock deployBlock, Deployment deployment, String deploymentResult)
+    throws IOException, JSONException {
+        String deployApp = deployment.getDeployApp();
+        String deployEnv = deployment.getDeployEnv();
+        String deployDesc = deployment.getDeployDesc();
+        UUID appProcUUID = UUID.fromString(deployment.getRequestId());
+        long startTime = deployment.getStartTime();
 
         /* create snapshot of environment reactively, as a result of successful deployment */
-        if (doCreateSnapshot) {
-            String snapshotName = envVars.expand(createSnapshot.getSnapshotName());
+        if (deployment.getSnapshotName() != null) {
+            String snapshotName = deployment.getSnapshotName();
 
             listener.getLogger().println("Creating environment snapshot '" + snapshotName
                     + "' in UrbanCode Deploy.");
@@ -479,39 +901,55 @@ public class DeployHelper {
         listener.getLogger().println("Finished the deployment in " + duration + " seconds");
         listener.getLogger().println("The deployment result is " + deploymentResult + ". See the UrbanCode Deploy deployment " +
                                      "logs for details : " + ucdUrl + "/#applicationProcessRequest/" + appProcUUID.toString());
-        
+
+        fetchApplicationProperties(deployApp);
+    }
+
+    /**
+     * Fetch the properties of an application into the exported environment variables
+     *
+     * @param deployApp The name of the application
+     */
+    private void fetchApplicationProperties(String deployApp) {
         listener.getLogger().println("Starting Application Property Fetching...");
         try{
-            URI uri = UriBuilder.fromPath(ucdUrl.toString()).path("rest").path("deploy").path("application").build();
-            String data = deployBlock.getMethod(uri.toString());
-            String applicationId ="";
-            JSONArray array = new JSONArray(data);  
-                for(int i=0; i < array.length(); i++)   
-                {  
-                    if(array.getJSONObject(i).getString("name").equalsIgnoreCase(deployApp.toString())){
-                        applicationId = array.getJSONObject(i).getString("id");
-                        break;
-                    }
-                }
+            String applicationId = getApplicationId(deployApp);
             listener.getLogger().println("APPLICATION ID is " + applicationId);
-            if(applicationId!= ""){
-                URI uri1 = UriBuilder.fromPath(ucdUrl.toString()).path("rest").path("deploy").path("application").path(applicationId).build();
-                String data1 = deployBlock.getMethod(uri1.toString());
-                
-                JSONObject objectData = new JSONObject(data1);
+            JSONObject objectData = applicationId.isEmpty() ? null : getApplication(applicationId);
+            if (objectData == null && !applicationId.isEmpty()) {
+                // the application was replaced under the same name, look its id up again
+                applicationIds.invalidate(getApplicationKey(deployApp));
+                applicationId = getApplicationId(deployApp);
+                listener.getLogger().println("APPLICATION ID is " + applicationId);
+                objectData = applicationId.isEmpty() ? null : getApplication(applicationId);
+            }
+            if (objectData != null) {
                 JSONObject propSheet = objectData.getJSONObject("propSheet");
                 String versionCount = propSheet.getString("versionCount");
-                // find Application property 
-                String uri2 = ucdUrl.toString()+"/property/propSheet/applications%26"+applicationId+"%26propSheet."+versionCount;
-                String data2 = deployBlock.getMethod(uri2);
-                JSONObject PropertyObject = new JSONObject(data2);
-                JSONArray array1 = new JSONArray(PropertyObject.getString("properties"));  
-                for(int i=0; i < array1.length(); i++)   
-                {  
-                    if(array1.getJSONObject(i).getString("secure") == "false"){
-                        listener.getLogger().println("Env : "+array1.getJSONObject(i).getString("name")+"="+array1.getJSONObject(i).getString("value"));
-                        deployBlock.createGlobalEnvironmentVariables(array1.getJSONObject(i).getString("name"),array1.getJSONObject(i).getString("value"));
+                // find Application property, a sheet version never changes so it is only read once
+                String sheetKey = ucdUrl.toString() + "|" + applicationId + "|" + versionCount;
+                Map<String, String> sheetProperties = applicationPropSheets.get(sheetKey);
+                if (sheetProperties == null) {
+                    URI uri2 = URI.create(ucdUrl.toString()+"/property/propSheet/applications%26"+applicationId+"%26propSheet."+versionCount);
+                    String data2 = RestHelper.executeGet(httpClient, uri2);
+                    JSONObject PropertyObject = new JSONObject(data2);
+                    JSONArray array1 = new JSONArray(PropertyObject.getString("properties"));
+                    sheetProperties = new LinkedHashMap<String, String>();
+                    for(int i=0; i < array1.length(); i++)
+                    {
+                        if("false".equals(array1.getJSONObject(i).getString("secure"))){
+                            sheetProperties.put(array1.getJSONObject(i).getString("name"), array1.getJSONObject(i).getString("value"));
+                        }
                     }
+                    sheetProperties = Collections.unmodifiableMap(sheetProperties);
+                    applicationPropSheets.put(sheetKey, sheetProperties);
+                }
+                else {
+                    listener.getLogger().println("Application properties are unchanged since version " + versionCount);
+                }
+                for (Map.Entry<String, String> property : sheetProperties.entrySet()) {
+                    listener.getLogger().println("Env : "+property.getKey()+"="+property.getValue());
+                    exportedVars.put(property.getKey(), property.getValue());
                 }
             }
         }catch (Exception e) {
@@ -520,6 +958,266 @@ public class DeployHelper {
         listener.getLogger().println("End Application Property Fetching.");
     }
 
+    /**
+     * Read an application by id
+     *
+     * @param applicationId The id of the application
+     * @return The application, or null if there is no application with the id
+     * @throws IOException
+     * @throws JSONException
+     */
+    private JSONObject getApplication(String applicationId) throws IOException, JSONException {
+        URI uri = UriBuilder.fromPath(ucdUrl.toString()).path("rest").path("deploy").path("application")
+                .path(applicationId).build();
+
+        try {
+            return new JSONObject(RestHelper.executeGet(httpClient, uri));
+        }
+        catch (RestHelper.StatusException ex) {
+            if (ex.getStatusCode() == 404) {
+                return null;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Find the id of an application by name. The id is looked up directly, and
+     * is shared with other builds until it expires. The full list of applications
+     * is only read when the direct lookup fails, and then every id in it is kept.
+     *
+     * @param application The name of the application
+     * @return The id of the application, or an empty string if there is none
+     * @throws IOException
+     * @throws JSONException
+     */
+    private String getApplicationId(String application) throws IOException, JSONException {
+        String applicationId = applicationIds.get(getApplicationKey(application));
+
+        if (applicationId != null) {
+            return applicationId;
+        }
+
+        URI infoUri = UriBuilder.fromPath(ucdUrl.toString()).path("cli").path("application").path("info")
+                .queryParam("application", application).build();
+        String info;
+        try {
+            info = RestHelper.executeGet(httpClient, infoUri);
+        }
+        catch (RestHelper.StatusException ex) {
+            // the server could not find the application by name, the full list is searched instead
+            info = "";
+        }
+        if (!info.isEmpty()) {
+            JSONObject applicationJson = new JSONObject(info);
+            if (application.equalsIgnoreCase(applicationJson.optString("name", application))
+                    && !applicationJson.optString("id", "").isEmpty()) {
+                applicationId = applicationJson.getString("id");
+                applicationIds.put(getApplicationKey(application), applicationId);
+                return applicationId;
+            }
+        }
+
+        // index every application, the next lookups of any of them are free
+        URI uri = UriBuilder.fromPath(ucdUrl.toString()).path("rest").path("deploy").path("application").build();
+        JSONArray array = new JSONArray(RestHelper.executeGet(httpClient, uri));
+        applicationId = "";
+        for (int i = 0; i < array.length(); i++) {
+            String name = array.getJSONObject(i).getString("name");
+            String id = array.getJSONObject(i).getString("id");
+            applicationIds.put(getApplicationKey(name), id);
+            if (applicationId.isEmpty() && name.equalsIgnoreCase(application)) {
+                applicationId = id;
+            }
+        }
+
+        return applicationId;
+    }
+
+    private String getApplicationKey(String application) {
+        return ucdUrl.toString() + "|" + application.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Work out the versions to remove from and add to a snapshot so that it holds
+     * exactly the wanted versions of each listed component. Components that are
+     * not listed keep their versions.
+     *
+     * @param wanted The map of component names to the versions the snapshot should hold
+     * @param current The map of component names to the names and ids of the versions in the snapshot
+     * @return The removals of each component followed by its additions
+     */
+    static List<SnapshotChange> diffSnapshot(
+            Map<String, List<String>> wanted,
+            Map<String, Map<String, String>> current)
+    {
+        List<SnapshotChange> changes = new ArrayList<SnapshotChange>();
+
+        for (Map.Entry<String, List<String>> entry : wanted.entrySet()) {
+            String component = entry.getKey();
+            Map<String, String> currentVersions = current.get(component);
+
+            if (currentVersions == null) {
+                currentVersions = Collections.emptyMap();
+            }
+
+            for (Map.Entry<String, String> currentVersion : currentVersions.entrySet()) {
+                if (!entry.getValue().contains(currentVersion.getKey())) {
+                    changes.add(new SnapshotChange(component, currentVersion.getKey(), currentVersion.getValue()));
+                }
+            }
+            for (String version : new LinkedHashSet<String>(entry.getValue())) {
+                if (!currentVersions.containsKey(version)) {
+                    changes.add(new SnapshotChange(component, version, null));
+                }
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Apply changes to a snapshot one at a time, as they all modify the same snapshot
+     *
+     * @param snapshot The name of the snapshot
+     * @param application The name of the application of the snapshot
+     * @param changes The changes to make
+     * @throws AbortException
+     */
+    private void applySnapshotChanges(String snapshot, String application, List<SnapshotChange> changes)
+    throws AbortException {
+        for (SnapshotChange change : changes) {
+            listener.getLogger().println(change.getDescription());
+            try {
+                change.apply(appClient, snapshot, application);
+            }
+            catch (IOException ex) {
+                throw new AbortException("Failed to change the snapshot: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Wait for a deployment to finish, through the shared status poller when
+     * there is one and otherwise by checking its status from this build
+     *
+     * @param procId The id of the application process request
+     * @return The result of the deployment
+     * @throws AbortException
+     */
+    private String awaitDeployment(String procId) throws AbortException {
+        if (statusPoller != null) {
+            return waitForDeployment(procId);
+        }
+
+        PollingStrategy polling = new PollingStrategy();
+
+        while (true) {
+            String deploymentResult = checkDeploymentProcessResult(procId);
+            polling.recordPoll();
+
+            if (StatusPoller.isFinished(deploymentResult)) {
+                listener.getLogger().println("Checked the deployment status " + polling.getPolls() + " times");
+                checkDeploymentResult(deploymentResult);
+
+                return deploymentResult;
+            }
+
+            // give application process more time to complete, backing off while it runs
+            try {
+                polling.sleep(deploymentResult);
+            }
+            catch (InterruptedException ex) {
+                throw new AbortException("Could not wait to check deployment result: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Read the maximum number of environments deployed to at once
+     *
+     * @param parallelism The number of environments, or empty for the default
+     * @return The number of environments
+     * @throws AbortException
+     */
+    private int readParallelism(String parallelism) throws AbortException {
+        if (parallelism == null || parallelism.trim().isEmpty()) {
+            return DEFAULT_DEPLOY_PARALLELISM;
+        }
+
+        try {
+            int value = Integer.parseInt(parallelism.trim());
+            if (value < 1) {
+                throw new AbortException("Deploy Parallelism must be at least 1 (Current value: " + value + ")");
+            }
+            return value;
+        }
+        catch (NumberFormatException ex) {
+            throw new AbortException("Deploy Parallelism must be a number: '" + parallelism + "'");
+        }
+    }
+
+    private void logResults(Iterable<EnvironmentResult> results) {
+        listener.getLogger().println("Environment results:");
+
+        for (EnvironmentResult result : results) {
+            StringBuilder line = new StringBuilder(String.format("    %-9s  %s", result.status, result.environment));
+
+            if (!result.status.equals("SKIPPED")) {
+                line.append(String.format(" (%.1f s)", result.elapsedMillis / 1000.0));
+            }
+            if (!result.message.isEmpty()) {
+                line.append(": ").append(result.message);
+            }
+            if (result.requestId != null) {
+                line.append(" ").append(ucdUrl).append("/#applicationProcessRequest/").append(result.requestId);
+            }
+
+            listener.getLogger().println(line.toString());
+        }
+    }
+
+    private static int countFailed(Iterable<EnvironmentResult> results) {
+        int failed = 0;
+
+        for (EnvironmentResult result : results) {
+            if (result.status.equals("FAILED")) {
+                failed++;
+            }
+        }
+
+        return failed;
+    }
+
+    /**
+     * Wait for a deployment to finish through the shared status poller
+     *
+     * @param procId The id of the application process request
+     * @return The result of the deployment
+     * @throws AbortException
+     */
+    private String waitForDeployment(String procId) throws AbortException {
+        StatusPoller.Watch watch = statusPoller.watch(procId);
+        String deploymentResult;
+
+        try {
+            deploymentResult = watch.getFuture().get();
+        }
+        catch (InterruptedException ex) {
+            statusPoller.cancel(watch);
+            throw new AbortException("Could not wait to check deployment result: " + ex.getMessage());
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            throw new AbortException(cause.getMessage());
+        }
+
+        listener.getLogger().println("Checked the deployment status " + watch.getPolls() + " times");
+        checkDeploymentResult(deploymentResult);
+
+        return deploymentResult;
+    }
+
     private UUID deploy(
             String application,
             String appProcess,
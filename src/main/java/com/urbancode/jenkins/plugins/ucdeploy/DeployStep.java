@@ -0,0 +1,324 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import com.google.inject.Inject;
+import com.urbancode.jenkins.plugins.ucdeploy.DeployHelper.DeployBlock;
+import com.urbancode.jenkins.plugins.ucdeploy.DeployHelper.Deployment;
+import com.urbancode.jenkins.plugins.ucdeploy.UCDeployPublisher.UserBlock;
+
+/**
+ * This class provides the ucDeploy Pipeline step, which requests a deployment
+ * and then gives up its thread until the deployment finishes. The wait is
+ * left to the status poller of the site, so a step called outside of a node
+ * block holds no executor while the deployment runs, and the wait carries on
+ * across a restart of Jenkins. A deploy block listing several environments
+ * is deployed to from a background thread instead, which also holds no
+ * executor but does not survive a restart.
+ *
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class DeployStep extends AbstractStepImpl {
+    private String siteName;
+    private UserBlock altUser;
+    private DeployBlock deploy;
+
+    /**
+     * @param siteName The profile name of the UrbanDeploy site
+     * @param altUser The alternative user to run as, or null to use the site user
+     * @param deploy The object holding the Deploy Block structure
+     */
+    @DataBoundConstructor
+    public DeployStep(String siteName, UserBlock altUser, DeployBlock deploy) {
+        this.siteName = siteName;
+        this.altUser = altUser;
+        this.deploy = deploy;
+    }
+
+    public String getSiteName() {
+        return siteName;
+    }
+
+    public UserBlock getAltUser() {
+        return altUser;
+    }
+
+    public DeployBlock getDeploy() {
+        return deploy;
+    }
+
+    /**
+     * Runs the deployment asynchronously, the step completes when the deployment does
+     */
+    public static class Execution extends AbstractStepExecutionImpl {
+        private static final long serialVersionUID = 1L;
+
+        @Inject(optional = true)
+        private transient DeployStep step;
+
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        @StepContextParameter
+        private transient EnvVars stepEnvVars;
+
+        private String siteName;
+        private UserBlock altUser;
+        private DeployBlock deployBlock;
+        private EnvVars envVars;
+        private volatile Deployment deployment;
+        private boolean fanOut = false;
+
+        private transient volatile StatusPoller.Watch watch;
+        private transient volatile Future<?> deployTask;
+
+        @Override
+        public boolean start() throws Exception {
+            siteName = step.getSiteName();
+            altUser = step.getAltUser();
+            deployBlock = step.getDeploy();
+            // the step context holds the build environment with any withEnv changes
+            envVars = stepEnvVars;
+
+            if (deployBlock == null) {
+                throw new AbortException("A deploy block is required by the ucDeploy step.");
+            }
+            if (altUser != null && (altUser.getAltUsername() == null || altUser.getAltUsername().isEmpty())) {
+                throw new AbortException("Alternative username is a required property when specifying the optional"
+                        + "'Run as Alternative User' property.");
+            }
+
+            List<String> environments = createDeployHelper(listener).readEnvironments(deployBlock);
+            if (environments.size() > 1) {
+                fanOut = true;
+                deployTask = Computer.threadPoolForRemoting.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            deployToEnvironments();
+                        }
+                        catch (Exception ex) {
+                            getContext().onFailure(ex);
+                        }
+                    }
+                });
+
+                return false;
+            }
+
+            // request the deployment off the Pipeline thread, on the pool meant for blocking remote calls
+            deployTask = Computer.threadPoolForRemoting.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        TaskListener taskListener = getContext().get(TaskListener.class);
+                        deployment = createDeployHelper(taskListener).startDeployment(deployBlock);
+
+                        if (deployBlock.getSkipWait()) {
+                            taskListener.getLogger().println("'Skip Wait' option selected. Returning immmediately "
+                                    + "without waiting for the UCD process to complete.");
+                            finish("");
+                        }
+                        else {
+                            waitForDeployment();
+                        }
+                    }
+                    catch (Exception ex) {
+                        getContext().onFailure(ex);
+                    }
+                }
+            });
+
+            return false;
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            StatusPoller.Watch currentWatch = watch;
+            Future<?> currentTask = deployTask;
+
+            if (currentWatch != null) {
+                getPoller().cancel(currentWatch);
+            }
+            if (currentTask != null) {
+                currentTask.cancel(true);
+            }
+
+            getContext().onFailure(cause);
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+
+            if (fanOut) {
+                getContext().onFailure(new AbortException("Jenkins restarted while deploying to several environments. "
+                        + "Check the deployment requests in UrbanCode Deploy."));
+                return;
+            }
+            if (deployment == null) {
+                getContext().onFailure(new AbortException("Jenkins restarted before the deployment was requested"));
+                return;
+            }
+
+            try {
+                getContext().get(TaskListener.class).getLogger().println("Resuming the wait for deployment request '"
+                        + deployment.getRequestId() + "'");
+                waitForDeployment();
+            }
+            catch (Exception ex) {
+                getContext().onFailure(ex);
+            }
+        }
+
+        /**
+         * Hand the wait to the status poller and finish the step once the deployment is done
+         */
+        private void waitForDeployment() throws Exception {
+            final StatusPoller.Watch currentWatch = getPoller().watch(deployment.getRequestId());
+            watch = currentWatch;
+
+            currentWatch.getFuture().addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (currentWatch.getFuture().isCancelled()) {
+                        return;
+                    }
+
+                    try {
+                        String deploymentResult = currentWatch.getFuture().get();
+                        getContext().get(TaskListener.class).getLogger().println("Checked the deployment status "
+                                + currentWatch.getPolls() + " times");
+                        DeployHelper.checkDeploymentResult(deploymentResult);
+                        finish(deploymentResult);
+                    }
+                    catch (ExecutionException ex) {
+                        getContext().onFailure(ex.getCause() != null ? ex.getCause() : ex);
+                    }
+                    catch (Exception ex) {
+                        getContext().onFailure(ex);
+                    }
+                }
+            }, Computer.threadPoolForRemoting);
+        }
+
+        /**
+         * Deploy to every listed environment, the step completes with the result of each environment
+         */
+        private void deployToEnvironments() throws Exception {
+            TaskListener taskListener = getContext().get(TaskListener.class);
+            DeployHelper deployHelper = createDeployHelper(taskListener);
+            deployHelper.setStatusPoller(getPoller());
+
+            try {
+                Map<String, String> results = deployHelper.runDeployments(deployBlock,
+                        deployHelper.readEnvironments(deployBlock));
+                UCDeployEnvironmentAction.export(getContext().get(Run.class), deployHelper.getExportedVars(), taskListener);
+                getContext().onSuccess(results);
+            }
+            finally {
+                deployTask = null;
+            }
+        }
+
+        private void finish(String deploymentResult) throws Exception {
+            TaskListener taskListener = getContext().get(TaskListener.class);
+            DeployHelper deployHelper = createDeployHelper(taskListener);
+
+            deployHelper.finishDeployment(deployBlock, deployment, deploymentResult);
+            UCDeployEnvironmentAction.export(getContext().get(Run.class), deployHelper.getExportedVars(), taskListener);
+            getContext().onSuccess(deploymentResult);
+        }
+
+        private DeployHelper createDeployHelper(TaskListener taskListener) throws AbortException {
+            UCDeploySite udSite = getSite();
+            DefaultHttpClient udClient;
+
+            if (altUser != null) {
+                udClient = udSite.getTempClient(altUser.getAltUsername(), altUser.getAltPassword());
+            }
+            else {
+                udClient = udSite.getClient();
+            }
+
+            DeployHelper deployHelper = new DeployHelper(udSite.getUri(), udClient, taskListener, envVars);
+            deployHelper.setConnections(udSite, altUser);
+
+            return deployHelper;
+        }
+
+        private StatusPoller getPoller() throws AbortException {
+            return StatusPoller.forSite(getSite(), altUser);
+        }
+
+        private UCDeploySite getSite() throws AbortException {
+            UCDeploySite[] sites = UCDeployPublisher.GLOBALDESCRIPTOR.getSites();
+
+            if (siteName == null && sites.length > 0) {
+                // default
+                return sites[0];
+            }
+            for (UCDeploySite site : sites) {
+                if (site.getDisplayName().equals(siteName)) {
+                    return site;
+                }
+            }
+
+            throw new AbortException("No IBM UrbanCode Deploy site named '" + siteName + "' is configured.");
+        }
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "ucDeploy";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Deploy with IBM UrbanCode Deploy";
+        }
+
+        @Override
+        public String getHelpFile() {
+            return "/plugin/ibm-ucdeploy-build-steps/deploy-step.html";
+        }
+
+        /**
+         * @return The UCD sites configured on the global configuration page
+         */
+        public UCDeploySite[] getSites() {
+            return UCDeployPublisher.GLOBALDESCRIPTOR.getSites();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds values looked up from the UCD server for a limited time, so
+ * that builds running in the same JVM can share lookups of data that rarely
+ * changes. Entries are dropped once they are older than the time to live.
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the cached values
+ */
+public class ExpiringCache<K, V> {
+    /* Expired entries are swept out after this many writes */
+    private static final int SWEEP_INTERVAL = 100;
+
+    private ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+    private long ttlNanos;
+    private AtomicInteger writes = new AtomicInteger();
+
+    private static class Entry<V> {
+        private V value;
+        private long expiry;
+
+        public Entry(V value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * The live entries of a cache with the time each one has left. Unlike the
+     * cache itself it can be carried to another JVM, where System.nanoTime values
+     * are not comparable.
+     *
+     * @param <K> The type of the keys
+     * @param <V> The type of the cached values
+     */
+    public static class Snapshot<K, V> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private HashMap<K, V> values = new HashMap<K, V>();
+        private HashMap<K, Long> remainingNanos = new HashMap<K, Long>();
+
+        /* The expiry of each copied entry in the JVM that took the snapshot, never sent along */
+        private transient HashMap<K, Long> expiries = new HashMap<K, Long>();
+
+        public Set<K> getKeys() {
+            return values.keySet();
+        }
+
+        public V get(K key) {
+            return values.get(key);
+        }
+    }
+
+    /**
+     * @param ttl The time an entry stays valid
+     * @param unit The unit of the time to live
+     */
+    public ExpiringCache(long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Get a cached value
+     *
+     * @param key The key of the value
+     * @return The value, or null if it is not cached or has expired
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiry > 0) {
+            entries.remove(key);
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    /**
+     * Cache a value for the time to live
+     *
+     * @param key The key of the value
+     * @param value The value to cache
+     */
+    public void put(K key, V value) {
+        put(key, value, ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cache a value for a given time, such as a shorter time for negative results
+     *
+     * @param key The key of the value
+     * @param value The value to cache
+     * @param ttl The time the value stays valid
+     * @param unit The unit of the time to live
+     */
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            return;
+        }
+
+        entries.put(key, new Entry<V>(value, System.nanoTime() + unit.toNanos(ttl)));
+
+        if (writes.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            sweep();
+        }
+    }
+
+    /**
+     * Drop a cached value, so that the next lookup goes to the server
+     *
+     * @param key The key of the value
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Drop every cached value
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Copy the live entries whose keys start with a prefix
+     *
+     * @param keyPrefix The prefix of the keys to copy, such as the URL of a server
+     * @return The copied entries
+     */
+    public Snapshot<K, V> snapshot(String keyPrefix) {
+        Snapshot<K, V> snapshot = new Snapshot<K, V>();
+        long now = System.nanoTime();
+
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            long remaining = entry.getValue().expiry - now;
+
+            if (remaining > 0 && String.valueOf(entry.getKey()).startsWith(keyPrefix)) {
+                snapshot.values.put(entry.getKey(), entry.getValue().value);
+                snapshot.remainingNanos.put(entry.getKey(), remaining);
+                snapshot.expiries.put(entry.getKey(), entry.getValue().expiry);
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Cache the entries of a snapshot for their remaining time. Where this cache
+     * already holds a key, the entry with the longer remaining time is kept.
+     *
+     * @param snapshot The entries to cache
+     */
+    public void merge(Snapshot<K, V> snapshot) {
+        long now = System.nanoTime();
+
+        for (Map.Entry<K, V> value : snapshot.values.entrySet()) {
+            K key = value.getKey();
+            Entry<V> merged = new Entry<V>(value.getValue(), now + snapshot.remainingNanos.get(key));
+            Entry<V> current = entries.putIfAbsent(key, merged);
+
+            while (current != null && current.expiry - merged.expiry < 0 && !entries.replace(key, current, merged)) {
+                current = entries.putIfAbsent(key, merged);
+            }
+        }
+    }
+
+    /**
+     * Apply the changes made to a copy of this cache elsewhere. An entry of the
+     * original snapshot that is missing from the updated one was invalidated by
+     * the copy, and is dropped unless it has expired or was cached again here
+     * since the snapshot was taken. The updated entries are then merged.
+     *
+     * @param original The snapshot of this cache the copy started from
+     * @param updated The snapshot of the copy once it was used
+     */
+    public void update(Snapshot<K, V> original, Snapshot<K, V> updated) {
+        long now = System.nanoTime();
+
+        if (original.expiries != null) {
+            for (K key : original.getKeys()) {
+                Entry<V> entry = entries.get(key);
+
+                if (!updated.values.containsKey(key)
+                        && entry != null
+                        && original.expiries.get(key).longValue() == entry.expiry
+                        && now - entry.expiry < 0)
+                {
+                    entries.remove(key, entry);
+                }
+            }
+        }
+
+        merge(updated);
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (now - iterator.next().expiry > 0) {
+                iterator.remove();
+            }
+        }
+    }
+}
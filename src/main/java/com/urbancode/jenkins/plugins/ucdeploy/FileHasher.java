@@ -0,0 +1,108 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class computes the content hashes used to compare local files with the
+ * files of a previously pushed component version
+ *
+ */
+public class FileHasher {
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private MessageDigest digest;
+    private HashCache cache;
+
+    public FileHasher() throws IOException {
+        this(null);
+    }
+
+    /**
+     * Constructor used to reuse the hashes of files that have not changed
+     *
+     * @param cache The cache of previously computed hashes, or null to hash every file
+     * @throws IOException
+     */
+    public FileHasher(HashCache cache) throws IOException {
+        this.cache = cache;
+
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IOException("The " + ALGORITHM + " algorithm is not available: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Hash the content of a file
+     *
+     * @param file The file to hash
+     * @return The hex encoded hash of the file content
+     * @throws IOException
+     */
+    public String hash(File file) throws IOException {
+        digest.reset();
+        InputStream in = new FileInputStream(file);
+
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * Hash a list of files relative to a base directory
+     *
+     * @param base The base directory of the files
+     * @param relativePaths The '/' separated paths of the files relative to the base directory
+     * @return A map of relative path to hex encoded hash, in the order of the paths
+     * @throws IOException
+     */
+    public Map<String, String> hashFiles(File base, List<String> relativePaths) throws IOException {
+        Map<String, String> hashes = new LinkedHashMap<String, String>();
+
+        for (String path : relativePaths) {
+            File file = new File(base, path);
+            String hash = cache != null ? cache.get(file) : null;
+
+            if (hash == null) {
+                hash = hash(file);
+
+                if (cache != null) {
+                    cache.put(file, hash);
+                }
+            }
+
+            hashes.put(path, hash);
+        }
+
+        return hashes;
+    }
+}
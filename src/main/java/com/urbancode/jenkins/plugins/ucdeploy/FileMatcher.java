@@ -0,0 +1,379 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.tools.ant.DirectoryScanner;
+
+/**
+ * This class matches files against Ant style include and exclude patterns
+ * (e.g. **&#47;*.jar, lib/*, conf/) in a single streaming walk of a directory
+ * tree. The patterns are compiled once into per segment matchers, and
+ * directories that no include can reach or that an exclude covers entirely
+ * are pruned without being listed. Like the Ant scanner used by the UCD
+ * client, the Ant default excludes (version control metadata such as .git,
+ * .svn and CVS, editor backups such as *~) are applied unless disabled.
+ *
+ */
+public class FileMatcher {
+    private static final String DEEP_WILDCARD = "**";
+
+    private List<Segment[]> includes = new ArrayList<Segment[]>();
+    private List<Segment[]> excludes = new ArrayList<Segment[]>();
+
+    /**
+     * Receives each matched file of a walk
+     */
+    public interface MatchVisitor {
+        /**
+         * @param relativePath The '/' separated path of the file relative to the base directory
+         * @param attributes The attributes of the file read during the walk
+         * @throws IOException
+         */
+        void visitFile(String relativePath, BasicFileAttributes attributes) throws IOException;
+
+        /**
+         * Called once every entry below a walked directory has been visited
+         *
+         * @param relativeDir The '/' separated path of the directory, or "" for the base directory
+         * @throws IOException
+         */
+        void leaveDirectory(String relativeDir) throws IOException;
+    }
+
+    /**
+     * One '/' separated element of a pattern
+     */
+    private static class Segment {
+        private String literal;
+        private Pattern wildcard;
+        private boolean deep;
+
+        public Segment(String text) {
+            if (text.equals(DEEP_WILDCARD)) {
+                deep = true;
+            }
+            else if (text.indexOf('*') >= 0 || text.indexOf('?') >= 0) {
+                wildcard = Pattern.compile(toRegex(text));
+            }
+            else {
+                literal = text;
+            }
+        }
+
+        public boolean matches(String name) {
+            if (deep) {
+                return true;
+            }
+            else if (literal != null) {
+                return literal.equals(name);
+            }
+            else {
+                return wildcard.matcher(name).matches();
+            }
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literalRun = new StringBuilder();
+
+            for (char ch : glob.toCharArray()) {
+                if (ch == '*' || ch == '?') {
+                    if (literalRun.length() > 0) {
+                        regex.append(Pattern.quote(literalRun.toString()));
+                        literalRun.setLength(0);
+                    }
+                    regex.append(ch == '*' ? ".*" : ".");
+                }
+                else {
+                    literalRun.append(ch);
+                }
+            }
+
+            if (literalRun.length() > 0) {
+                regex.append(Pattern.quote(literalRun.toString()));
+            }
+
+            return regex.toString();
+        }
+    }
+
+    /**
+     * @param includePatterns The patterns of files to include, or an empty array to include all files
+     * @param excludePatterns The patterns of files to exclude, in addition to the Ant default excludes
+     */
+    public FileMatcher(String[] includePatterns, String[] excludePatterns) {
+        this(includePatterns, excludePatterns, true);
+    }
+
+    /**
+     * @param includePatterns The patterns of files to include, or an empty array to include all files
+     * @param excludePatterns The patterns of files to exclude
+     * @param defaultExcludes Whether to also exclude the Ant default excludes
+     */
+    public FileMatcher(String[] includePatterns, String[] excludePatterns, boolean defaultExcludes) {
+        for (String pattern : includePatterns) {
+            includes.add(compile(pattern));
+        }
+        if (includes.isEmpty()) {
+            includes.add(compile(DEEP_WILDCARD));
+        }
+
+        for (String pattern : excludePatterns) {
+            excludes.add(compile(pattern));
+        }
+        if (defaultExcludes) {
+            for (String pattern : DirectoryScanner.getDefaultExcludes()) {
+                excludes.add(compile(pattern));
+            }
+        }
+    }
+
+    /**
+     * Check whether a relative file path is matched
+     *
+     * @param relativePath The '/' separated path of the file relative to the base directory
+     * @return true if the path is included and not excluded
+     */
+    public boolean matches(String relativePath) {
+        return matches(relativePath.split("/"));
+    }
+
+    /**
+     * Walk a directory tree once, passing every matched regular file to the visitor.
+     * The files of a directory are all passed before the visitor leaves it, so
+     * the visitor can hand on what it gathered for the directory at that point.
+     *
+     * @param base The base directory of the walk
+     * @param visitor The visitor to receive the matched files
+     * @return The number of matched files
+     * @throws IOException
+     */
+    public int walk(File base, final MatchVisitor visitor) throws IOException {
+        final Path basePath = base.toPath();
+        final List<String> segments = new ArrayList<String>();
+        final int[] matched = new int[1];
+
+        Files.walkFileTree(basePath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(basePath)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                segments.add(dir.getFileName().toString());
+                String[] dirSegments = segments.toArray(new String[segments.size()]);
+
+                if (!canIncludeBelow(dirSegments) || excludesAllBelow(dirSegments)) {
+                    segments.remove(segments.size() - 1);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                visitor.leaveDirectory(join(segments.toArray(new String[segments.size()])));
+
+                if (!dir.equals(basePath)) {
+                    segments.remove(segments.size() - 1);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                String[] fileSegments = new String[segments.size() + 1];
+                segments.toArray(fileSegments);
+                fileSegments[segments.size()] = file.getFileName().toString();
+
+                if (matches(fileSegments)) {
+                    matched[0]++;
+                    visitor.visitFile(join(fileSegments), attrs);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                // unreadable entries and symbolic link loops are skipped, as the Ant scanner does
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return matched[0];
+    }
+
+    private boolean matches(String[] pathSegments) {
+        boolean included = false;
+
+        for (Segment[] include : includes) {
+            if (matchFrom(include, 0, pathSegments, 0)) {
+                included = true;
+                break;
+            }
+        }
+
+        if (!included) {
+            return false;
+        }
+
+        for (Segment[] exclude : excludes) {
+            if (matchFrom(exclude, 0, pathSegments, 0)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check whether any include pattern could match a file below a directory
+     */
+    private boolean canIncludeBelow(String[] dirSegments) {
+        for (Segment[] include : includes) {
+            if (matchPrefix(include, 0, dirSegments, 0)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check whether an exclude pattern of the form dir/** covers a whole directory
+     */
+    private boolean excludesAllBelow(String[] dirSegments) {
+        for (Segment[] exclude : excludes) {
+            int last = exclude.length - 1;
+
+            if (last >= 0 && exclude[last].deep && matchFrom(exclude, 0, dirSegments, 0, last)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean matchFrom(Segment[] pattern, int patternIndex, String[] path, int pathIndex) {
+        return matchFrom(pattern, patternIndex, path, pathIndex, pattern.length);
+    }
+
+    /**
+     * Match the path against the pattern segments up to patternEnd, with ** matching
+     * zero or more path segments
+     */
+    private static boolean matchFrom(Segment[] pattern, int patternIndex, String[] path, int pathIndex, int patternEnd) {
+        while (patternIndex < patternEnd) {
+            Segment segment = pattern[patternIndex];
+
+            if (segment.deep) {
+                // collapse consecutive ** segments
+                while (patternIndex + 1 < patternEnd && pattern[patternIndex + 1].deep) {
+                    patternIndex++;
+                }
+                if (patternIndex + 1 == patternEnd) {
+                    return true;
+                }
+                for (int skip = pathIndex; skip < path.length; skip++) {
+                    if (matchFrom(pattern, patternIndex + 1, path, skip, patternEnd)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            if (pathIndex >= path.length || !segment.matches(path[pathIndex])) {
+                return false;
+            }
+
+            patternIndex++;
+            pathIndex++;
+        }
+
+        return pathIndex == path.length;
+    }
+
+    /**
+     * Check whether the directory path could be the leading part of a match
+     */
+    private static boolean matchPrefix(Segment[] pattern, int patternIndex, String[] dir, int dirIndex) {
+        while (dirIndex < dir.length) {
+            if (patternIndex >= pattern.length) {
+                return false;
+            }
+
+            Segment segment = pattern[patternIndex];
+
+            if (segment.deep) {
+                return true;
+            }
+            if (!segment.matches(dir[dirIndex])) {
+                return false;
+            }
+
+            patternIndex++;
+            dirIndex++;
+        }
+
+        // a file still needs at least one more segment below the directory
+        return patternIndex < pattern.length;
+    }
+
+    private static Segment[] compile(String pattern) {
+        String normalized = pattern.trim().replace('\\', '/');
+
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        if (normalized.endsWith("/")) {
+            normalized += DEEP_WILDCARD;
+        }
+
+        List<Segment> segments = new ArrayList<Segment>();
+        for (String text : normalized.split("/")) {
+            if (!text.isEmpty()) {
+                segments.add(new Segment(text));
+            }
+        }
+
+        return segments.toArray(new Segment[segments.size()]);
+    }
+
+    private static String join(String[] segments) {
+        StringBuilder path = new StringBuilder();
+
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                path.append('/');
+            }
+            path.append(segments[i]);
+        }
+
+        return path.toString();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/**
+ * This class packs many small files into a single zip archive, so that they
+ * are uploaded to a component version as one entry instead of paying the
+ * overhead of a request for each file. The archive keeps the relative paths
+ * and execute bits of the packed files.
+ *
+ */
+public class FilePacker {
+    public static final String PACK_FILE_NAME = "ucdeploy-packed-files.zip";
+
+    /* Version property naming the archive of a version that holds packed files */
+    public static final String PACKED_PROPERTY = "ucdeploy.packedArchive";
+    public static final String DEFAULT_THRESHOLD = "10";
+
+    /* Packing fewer files than this saves nothing */
+    public static final int MIN_PACK_FILES = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private FilePacker() {
+    }
+
+    /**
+     * Get the directory the archive of a component is written to before upload
+     *
+     * @param workspace The workspace of the build
+     * @param component The name of the component
+     * @return The pack directory
+     */
+    public static File getPackDir(File workspace, String component) {
+        return new File(UploadHelper.getStateDir(workspace), "pack-" + UploadHelper.toFileName(component));
+    }
+
+    /**
+     * Write files into a zip archive in a single streaming pass
+     *
+     * @param base The base directory of the files
+     * @param relativePaths The '/' separated paths of the files relative to the base directory
+     * @param archive The archive to write
+     * @throws IOException
+     */
+    public static void pack(File base, List<String> relativePaths, File archive) throws IOException {
+        File dir = archive.getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir.getAbsolutePath());
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(archive);
+
+        try {
+            for (String path : relativePaths) {
+                File file = new File(base, path);
+                ZipArchiveEntry entry = new ZipArchiveEntry(path);
+                entry.setSize(file.length());
+                entry.setTime(file.lastModified());
+                entry.setUnixMode(file.canExecute() ? 0755 : 0644);
+
+                zipStream.putArchiveEntry(entry);
+                InputStream in = new FileInputStream(file);
+
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        zipStream.write(buffer, 0, read);
+                    }
+                }
+                finally {
+                    in.close();
+                }
+
+                zipStream.closeArchiveEntry();
+            }
+
+            zipStream.finish();
+        }
+        finally {
+            zipStream.close();
+        }
+    }
+
+    /**
+     * Remove a pack directory and the archive in it
+     *
+     * @param packDir The pack directory
+     */
+    public static void delete(File packDir) {
+        File[] files = packDir.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        packDir.delete();
+    }
+}
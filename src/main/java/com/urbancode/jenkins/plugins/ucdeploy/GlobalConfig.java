@@ -62,6 +62,9 @@ public class GlobalConfig extends JobProperty<Job<?, ?>> {
 
         private CopyOnWriteList<UCDeploySite> sites = new CopyOnWriteList<UCDeploySite>();
 
+        /* Left unset by installs from before the option, which keep saving global variables */
+        private Boolean saveGlobalEnvVars;
+
         public GlobalConfigDescriptor() {
             super(GlobalConfig.class);
             load();
@@ -82,6 +85,18 @@ public class GlobalConfig extends JobProperty<Job<?, ?>> {
             sites.replaceBy(Arrays.asList(sitesArray));
         }
 
+        /**
+         * @return Whether variables set by UCD steps are also saved as global environment variables
+         */
+        public boolean getSaveGlobalEnvVars() {
+            return saveGlobalEnvVars == null || saveGlobalEnvVars;
+        }
+
+        @DataBoundSetter
+        public void setSaveGlobalEnvVars(boolean saveGlobalEnvVars) {
+            this.saveGlobalEnvVars = saveGlobalEnvVars;
+        }
+
         /**
          * Replace sites with user defined sites
          *
@@ -93,6 +108,7 @@ public class GlobalConfig extends JobProperty<Job<?, ?>> {
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
             sites.replaceBy(req.bindJSONToList(UCDeploySite.class, formData.get("sites")));
+            saveGlobalEnvVars = formData.optBoolean("saveGlobalEnvVars");
             save();
             return super.configure(req, formData);
         }
@@ -0,0 +1,192 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class caches the content hashes of workspace files between builds. A
+ * cached hash is reused as long as the size and modification time of the file
+ * are unchanged, so hashing work scales with the files that actually changed.
+ *
+ */
+public class HashCache {
+    private static final String ENCODING = "UTF-8";
+    private static final String CACHE_FILE_NAME = "hashes.cache";
+
+    /* Files modified this recently may still be changing within the mtime resolution */
+    private static final long MIN_AGE_MILLIS = 2000L;
+
+    private Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private Map<String, Entry> usedEntries = new ConcurrentHashMap<String, Entry>();
+    private AtomicInteger hits = new AtomicInteger();
+    private AtomicInteger misses = new AtomicInteger();
+
+    private static class Entry {
+        private long size;
+        private long lastModified;
+        private String hash;
+
+        public Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Get the cache file of a workspace
+     *
+     * @param workspace The workspace of the build
+     * @return The cache file
+     */
+    public static File getCacheFile(File workspace) {
+        return new File(UploadHelper.getStateDir(workspace), CACHE_FILE_NAME);
+    }
+
+    /**
+     * Get the cached hash of a file
+     *
+     * @param file The file to look up
+     * @return The cached hash, or null if the file is not cached or has changed
+     */
+    public String get(File file) {
+        String path = file.getAbsolutePath();
+        Entry entry = entries.get(path);
+
+        if (entry != null && entry.size == file.length() && entry.lastModified == file.lastModified()) {
+            usedEntries.put(path, entry);
+            hits.incrementAndGet();
+            return entry.hash;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache the hash of a file under its current size and modification time
+     *
+     * @param file The file that was hashed
+     * @param hash The hash of the file
+     */
+    public void put(File file, String hash) {
+        long lastModified = file.lastModified();
+
+        if (System.currentTimeMillis() - lastModified < MIN_AGE_MILLIS) {
+            return;
+        }
+
+        Entry entry = new Entry(file.length(), lastModified, hash);
+        entries.put(file.getAbsolutePath(), entry);
+        usedEntries.put(file.getAbsolutePath(), entry);
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Whether any hash was looked up since the cache was loaded
+     *
+     * @return true if the cache was used
+     */
+    public boolean isUsed() {
+        return hits.get() + misses.get() > 0;
+    }
+
+    /**
+     * Load a cache from disk
+     *
+     * @param file The cache file
+     * @return The loaded cache, which is empty if the file does not exist
+     * @throws IOException
+     */
+    public static HashCache load(File file) throws IOException {
+        HashCache cache = new HashCache();
+
+        if (!file.isFile()) {
+            return cache;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+
+                if (fields.length == 4) {
+                    try {
+                        long size = Long.parseLong(fields[1]);
+                        long lastModified = Long.parseLong(fields[2]);
+                        cache.entries.put(fields[3], new Entry(size, lastModified, fields[0]));
+                    }
+                    catch (NumberFormatException ex) {
+                        // skip the corrupt entry, it will be hashed again
+                    }
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        return cache;
+    }
+
+    /**
+     * Write the entries used since the cache was loaded to disk, dropping entries
+     * for files that are no longer pushed
+     *
+     * @param file The cache file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        File dir = file.getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir.getAbsolutePath());
+        }
+
+        File tempFile = new File(dir, file.getName() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING));
+
+        try {
+            for (Map.Entry<String, Entry> mapEntry : usedEntries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                writer.write(entry.hash + "\t" + entry.size + "\t" + entry.lastModified + "\t" + mapEntry.getKey());
+                writer.newLine();
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace " + file.getAbsolutePath());
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to write " + file.getAbsolutePath());
+        }
+    }
+}
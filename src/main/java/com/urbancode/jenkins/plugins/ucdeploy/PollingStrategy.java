@@ -0,0 +1,158 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.util.Random;
+
+/**
+ * This class decides how long to wait between checks of a long running UCD
+ * request. Checks start out fast so that short deployments finish promptly,
+ * then back off exponentially up to a cap, with random jitter so that many
+ * builds waiting on the same server do not poll in step. The intervals can be
+ * tuned with system properties named after this class.
+ *
+ */
+public class PollingStrategy {
+    /* Milliseconds before the first checks */
+    public static final long INITIAL_INTERVAL = Long.getLong(
+            PollingStrategy.class.getName() + ".initialInterval", 1000L);
+
+    /* Longest wait in milliseconds between checks of a running request */
+    public static final long MAX_INTERVAL = Long.getLong(
+            PollingStrategy.class.getName() + ".maxInterval", 30000L);
+
+    /* Milliseconds between checks of a request scheduled for later, which will not change soon */
+    public static final long SCHEDULED_INTERVAL = Long.getLong(
+            PollingStrategy.class.getName() + ".scheduledInterval", 60000L);
+
+    /* Percentage each wait grows by over the one before */
+    public static final int BACKOFF_PERCENT = Integer.getInteger(
+            PollingStrategy.class.getName() + ".backoffPercent", 50);
+
+    /* Percentage a wait is randomly lengthened or shortened by */
+    public static final int JITTER_PERCENT = Integer.getInteger(
+            PollingStrategy.class.getName() + ".jitterPercent", 20);
+
+    /* Checks made at the initial interval before backing off */
+    private static final int FAST_POLLS = 3;
+
+    private long initialInterval;
+    private long maxInterval;
+    private long scheduledInterval;
+    private int backoffPercent;
+    private int jitterPercent;
+    private Random random = new Random();
+
+    private long interval;
+    private int polls = 0;
+    private String lastState = null;
+
+    public PollingStrategy() {
+        this(INITIAL_INTERVAL, MAX_INTERVAL, SCHEDULED_INTERVAL, BACKOFF_PERCENT, JITTER_PERCENT);
+    }
+
+    /**
+     * @param initialInterval The milliseconds to wait before the first checks
+     * @param maxInterval The longest wait in milliseconds between checks
+     * @param scheduledInterval The milliseconds to wait while the request is scheduled for later
+     * @param backoffPercent The percentage each wait grows by
+     * @param jitterPercent The percentage a wait is randomly changed by
+     */
+    public PollingStrategy(
+            long initialInterval,
+            long maxInterval,
+            long scheduledInterval,
+            int backoffPercent,
+            int jitterPercent)
+    {
+        this.initialInterval = Math.max(1L, initialInterval);
+        this.maxInterval = Math.max(this.initialInterval, maxInterval);
+        this.scheduledInterval = Math.max(1L, scheduledInterval);
+        this.backoffPercent = Math.max(0, backoffPercent);
+        this.jitterPercent = Math.min(100, Math.max(0, jitterPercent));
+        this.interval = this.initialInterval;
+    }
+
+    /**
+     * Record a check of the request
+     */
+    public void recordPoll() {
+        polls++;
+    }
+
+    /**
+     * Get the time to wait before the next check. The backoff starts over
+     * whenever the state of the request changes.
+     *
+     * @param state The state reported by the last check
+     * @return The milliseconds to wait
+     */
+    public long nextDelay(String state) {
+        if (state != null && !state.equalsIgnoreCase(lastState)) {
+            interval = initialInterval;
+            lastState = state;
+        }
+
+        if ("SCHEDULED FOR FUTURE".equalsIgnoreCase(state)) {
+            return jitter(scheduledInterval);
+        }
+
+        long delay = interval;
+        if (polls >= FAST_POLLS) {
+            interval = Math.min(maxInterval, interval + interval * backoffPercent / 100);
+        }
+
+        return jitter(delay);
+    }
+
+    /**
+     * Get the time to wait after a check that failed. The wait doubles with each
+     * failure in a row, up to the cap, so that a struggling server is not
+     * checked at the fast rate.
+     *
+     * @param failures The number of checks that failed in a row
+     * @return The milliseconds to wait
+     */
+    public long failureDelay(int failures) {
+        long delay = interval;
+
+        for (int i = 0; i < failures && delay < maxInterval; i++) {
+            delay *= 2;
+        }
+
+        return jitter(Math.min(maxInterval, delay));
+    }
+
+    /**
+     * Wait before the next check
+     *
+     * @param state The state reported by the last check
+     * @throws InterruptedException
+     */
+    public void sleep(String state) throws InterruptedException {
+        Thread.sleep(nextDelay(state));
+    }
+
+    /**
+     * @return The number of checks made so far
+     */
+    public int getPolls() {
+        return polls;
+    }
+
+    private long jitter(long delay) {
+        if (jitterPercent == 0) {
+            return delay;
+        }
+
+        long spread = delay * jitterPercent / 100;
+        long offset = (long) ((random.nextDouble() * 2 - 1) * spread);
+
+        return Math.max(1L, delay + offset);
+    }
+}
@@ -12,6 +12,7 @@ import hudson.EnvVars;
 import hudson.model.TaskListener;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.UUID;
 
 import org.codehaus.jettison.json.JSONArray;
@@ -39,7 +40,7 @@ public class ProcessHelper {
         this.envVars = envVars;
     }
 
-    public static class CreateProcessBlock {
+    public static class CreateProcessBlock implements Serializable {
         private String processComponent;
 
         @DataBoundConstructor
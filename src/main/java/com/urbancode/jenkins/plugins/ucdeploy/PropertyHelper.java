@@ -0,0 +1,363 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import hudson.AbortException;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.UriBuilder;
+
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import com.urbancode.jenkins.plugins.ucdeploy.UCDeployPublisher.UserBlock;
+import com.urbancode.ud.client.ComponentClient;
+import com.urbancode.ud.client.PropertyClient;
+import com.urbancode.ud.client.VersionClient;
+
+/**
+ * This class writes component version properties in as few round trips as
+ * possible. All values are written to the version's property sheet in a single
+ * request where the server allows it, otherwise the definitions and values are
+ * written over several connections at once.
+ *
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class PropertyHelper {
+    public static final int MAX_CONNECTIONS = 8;
+
+    /* Seconds a component's version property sheet definition is reused across builds */
+    public static final long PROP_SHEET_DEF_TTL = Long.getLong(
+            PropertyHelper.class.getName() + ".propSheetDefTtl", 600L);
+
+    /* Shared with the controller through ServerLookups */
+    static final ExpiringCache<String, PropSheetDef> propSheetDefs =
+            new ExpiringCache<String, PropSheetDef>(PROP_SHEET_DEF_TTL, TimeUnit.SECONDS);
+
+    private URI ucdUrl;
+    private DefaultHttpClient httpClient;
+    private UCDeploySite udSite;
+    private UserBlock altUser;
+    private TaskListener listener;
+
+    /**
+     * The version property sheet definition of a component and the names of the
+     * properties defined on it
+     */
+    public static class PropSheetDef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private UUID id;
+        private String path;
+        private Set<String> propNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        public PropSheetDef(UUID id, String path) {
+            this.id = id;
+            this.path = path;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Set<String> getPropNames() {
+            return propNames;
+        }
+    }
+
+    /**
+     * A request made for one property
+     */
+    private interface PropertyTask {
+        void run(DefaultHttpClient client, String propName) throws Exception;
+    }
+
+    /**
+     * @param ucdUrl The URL of the UCD server
+     * @param httpClient The client used when no additional connections can be opened
+     * @param udSite The UCD site to open additional connections to, or null to make every request in turn
+     * @param altUser The alternative user to run as, or null to use the site user
+     * @param listener The build listener
+     */
+    public PropertyHelper(
+            URI ucdUrl,
+            DefaultHttpClient httpClient,
+            UCDeploySite udSite,
+            UserBlock altUser,
+            TaskListener listener)
+    {
+        this.ucdUrl = ucdUrl;
+        this.httpClient = httpClient;
+        this.udSite = udSite;
+        this.altUser = altUser;
+        this.listener = listener;
+    }
+
+    /**
+     * Get the version property sheet definition of a component, reusing the one
+     * looked up by an earlier build while it is fresh
+     *
+     * @param component The name of the component
+     * @return The property sheet definition and its defined property names
+     * @throws AbortException
+     */
+    public PropSheetDef getVersionPropSheetDef(String component) throws AbortException {
+        String key = getCacheKey(component);
+        PropSheetDef propSheetDef = propSheetDefs.get(key);
+
+        if (propSheetDef != null) {
+            return propSheetDef;
+        }
+
+        try {
+            JSONObject propSheetDefJson = new ComponentClient(ucdUrl, httpClient).getComponentVersionPropSheetDef(component);
+            propSheetDef = new PropSheetDef(UUID.fromString(propSheetDefJson.getString("id")),
+                                            propSheetDefJson.getString("path"));
+
+            JSONArray propDefs = new PropertyClient(ucdUrl, httpClient).getPropSheetDefPropDefs(propSheetDef.getPath());
+            for (int i = 0; i < propDefs.length(); i++) {
+                propSheetDef.getPropNames().add(propDefs.getJSONObject(i).getString("name"));
+            }
+        }
+        catch (IOException ex) {
+            throw new AbortException("An error occurred acquiring property sheets: " + ex.getMessage());
+        }
+        catch (JSONException ex) {
+            throw new AbortException("An error occurred while processing the JSON object of the version property sheet: " +
+                                     ex.getMessage());
+        }
+
+        propSheetDefs.put(key, propSheetDef);
+
+        return propSheetDef;
+    }
+
+    /**
+     * Create text property definitions on a component's version property sheet definition
+     *
+     * @param component The name of the component
+     * @param propSheetDef The property sheet definition of the component
+     * @param propNames The names of the properties to define
+     * @throws AbortException
+     */
+    public void createPropDefs(
+            final String component,
+            final PropSheetDef propSheetDef,
+            List<String> propNames)
+    throws AbortException {
+        listener.getLogger().println("Creating " + propNames.size() + " property definitions");
+
+        runTasks(propNames, new PropertyTask() {
+            @Override
+            public void run(DefaultHttpClient client, String propName) throws Exception {
+                try {
+                    new PropertyClient(ucdUrl, client).createPropDef(propSheetDef.getId(),
+                                                                     propSheetDef.getPath(),
+                                                                     propName,
+                                                                     "",
+                                                                     "",
+                                                                     false,
+                                                                     "TEXT",
+                                                                     "");
+                }
+                catch (IOException ex) {
+                    String message = String.valueOf(ex.getMessage()).toLowerCase(Locale.ENGLISH);
+
+                    if (!message.contains("already exists")) {
+                        throw ex;
+                    }
+
+                    // the cached definition is stale, the property was defined by someone else
+                    propSheetDefs.invalidate(getCacheKey(component));
+                }
+
+                propSheetDef.getPropNames().add(propName);
+            }
+        }, "An error occurred while creating the property definition");
+    }
+
+    /**
+     * Set the values of properties on a component version
+     *
+     * @param component The name of the component
+     * @param version The name of the version
+     * @param versionId The UUID of the version, or null if only the name is known
+     * @param properties The map of property names to values
+     * @throws AbortException
+     */
+    public void setVersionProperties(
+            final String component,
+            final String version,
+            UUID versionId,
+            final Map<String, String> properties)
+    throws AbortException {
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            listener.getLogger().println("Setting version property '" + property.getKey() + "' to '" +
+                                         property.getValue() + "'");
+        }
+
+        if (versionId != null) {
+            try {
+                setAllPropValues(versionId, properties);
+                listener.getLogger().println("Successfully set " + properties.size() + " version properties in one request");
+                return;
+            }
+            catch (IOException ex) {
+                listener.getLogger().println("[Warning] Unable to set the version properties in one request, setting " +
+                                             "them individually: " + ex.getMessage());
+            }
+            catch (JSONException ex) {
+                listener.getLogger().println("[Warning] Unable to set the version properties in one request, setting " +
+                                             "them individually: " + ex.getMessage());
+            }
+        }
+
+        runTasks(new ArrayList<String>(properties.keySet()), new PropertyTask() {
+            @Override
+            public void run(DefaultHttpClient client, String propName) throws Exception {
+                new VersionClient(ucdUrl, client).setVersionProperty(version,
+                                                                     component,
+                                                                     propName,
+                                                                     properties.get(propName),
+                                                                     false);
+            }
+        }, "An error occurred while setting the version property");
+
+        listener.getLogger().println("Successfully set " + properties.size() + " version properties");
+    }
+
+    /**
+     * Write the given values to the property sheet of a version with a single
+     * request. Only the properties being set are sent, so the other values on the
+     * sheet, secure values in particular, are left as they are.
+     */
+    private void setAllPropValues(UUID versionId, Map<String, String> properties) throws IOException, JSONException {
+        URI versionUri = UriBuilder.fromUri(ucdUrl).path("rest").path("deploy").path("version")
+                .path(versionId.toString()).build();
+        JSONObject versionJson = new JSONObject(RestHelper.executeGet(httpClient, versionUri));
+        JSONObject propSheet = versionJson.optJSONObject("propSheet");
+
+        if (propSheet == null || propSheet.optString("path", "").isEmpty()) {
+            throw new IOException("The server does not expose the property sheet of version " + versionId);
+        }
+
+        // property sheet paths are addressed with '&' in place of '/', at the latest sheet version
+        String sheetPath = propSheet.getString("path").replace('/', '&') + ".-1";
+        URI sheetUri = UriBuilder.fromUri(ucdUrl).path("property").path("propSheet").path("{sheet}").build(sheetPath);
+        JSONObject sheetJson = new JSONObject(RestHelper.executeGet(httpClient, sheetUri));
+
+        JSONObject values = new JSONObject();
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            values.put(property.getKey(), property.getValue());
+        }
+
+        URI valuesUri = UriBuilder.fromUri(ucdUrl).path("property").path("propSheet").path("{sheet}")
+                .path("propValues").build(sheetPath);
+        HttpPut method = new HttpPut(valuesUri);
+        method.setEntity(new StringEntity(values.toString(), ContentType.APPLICATION_JSON));
+        if (sheetJson.has("version")) {
+            method.setHeader("Version", sheetJson.getString("version"));
+        }
+
+        RestHelper.execute(httpClient, method);
+    }
+
+    private String getCacheKey(String component) {
+        return ServerLookups.getKeyPrefix(ucdUrl, udSite, altUser) + component;
+    }
+
+    /**
+     * Run a request for each property, over several connections when the site is known
+     */
+    private void runTasks(List<String> propNames, final PropertyTask task, String errorMessage) throws AbortException {
+        if (udSite == null || propNames.size() < 2) {
+            for (String propName : propNames) {
+                try {
+                    task.run(httpClient, propName);
+                }
+                catch (Exception ex) {
+                    throw new AbortException(errorMessage + " '" + propName + "': " + ex.getMessage());
+                }
+            }
+            return;
+        }
+
+        int threads = Math.min(MAX_CONNECTIONS, propNames.size());
+        final ClientPool clientPool = new ClientPool(udSite, altUser, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<String> completionService = new ExecutorCompletionService<String>(executor);
+
+        try {
+            for (final String propName : propNames) {
+                completionService.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        DefaultHttpClient client = clientPool.borrow();
+
+                        try {
+                            task.run(client, propName);
+                        }
+                        catch (Exception ex) {
+                            throw new Exception("'" + propName + "': " + ex.getMessage(), ex);
+                        }
+                        finally {
+                            clientPool.release(client);
+                        }
+
+                        return propName;
+                    }
+                });
+            }
+
+            for (int completed = 0; completed < propNames.size(); completed++) {
+                try {
+                    completionService.take().get();
+                }
+                catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    throw new AbortException(errorMessage + " " + cause.getMessage());
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            throw new AbortException("Interrupted while writing properties: " + ex.getMessage());
+        }
+        finally {
+            executor.shutdownNow();
+            clientPool.shutdown();
+        }
+    }
+}
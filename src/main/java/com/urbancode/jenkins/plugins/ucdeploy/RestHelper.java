@@ -0,0 +1,108 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * This class provides the REST calls to IBM UrbanCode Deploy that are not
+ * abstracted by the uDeployRestClient
+ *
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class RestHelper {
+
+    private RestHelper() {}
+
+    /**
+     * A request answered with a non successful status code
+     */
+    public static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private int statusCode;
+
+        public StatusException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * Execute a GET request and return the response body
+     *
+     * @param client The client to execute the request with
+     * @param uri The URI to request
+     * @return The response body, or an empty string if there is none
+     * @throws IOException
+     */
+    public static String executeGet(DefaultHttpClient client, URI uri) throws IOException {
+        return execute(client, new HttpGet(uri));
+    }
+
+    /**
+     * Execute a DELETE request
+     *
+     * @param client The client to execute the request with
+     * @param uri The URI to delete
+     * @throws IOException
+     */
+    public static void executeDelete(DefaultHttpClient client, URI uri) throws IOException {
+        execute(client, new HttpDelete(uri));
+    }
+
+    /**
+     * Execute a request, failing on any non successful status code
+     *
+     * @param client The client to execute the request with
+     * @param method The request to execute
+     * @return The response body, or an empty string if there is none
+     * @throws StatusException if the server answers with a non successful status code
+     * @throws IOException
+     */
+    public static String execute(DefaultHttpClient client, HttpRequestBase method) throws IOException {
+        String result = "";
+
+        try {
+            HttpResponse response = client.execute(method);
+            int responseCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+
+            if (entity != null) {
+                result = EntityUtils.toString(entity);
+            }
+
+            if (responseCode == 401) {
+                throw new StatusException(responseCode,
+                        "Error connecting to IBM UrbanCode Deploy: Invalid user and/or password");
+            }
+            else if (responseCode < 200 || responseCode >= 300) {
+                throw new StatusException(responseCode, "Error connecting to IBM UrbanCode Deploy: " + responseCode + " using URI: "
+                        + method.getURI().toString() + (result.isEmpty() ? "" : " : " + result));
+            }
+        }
+        finally {
+            method.releaseConnection();
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.util.Set;
+import java.util.UUID;
+
+import com.urbancode.jenkins.plugins.ucdeploy.UCDeployPublisher.UserBlock;
+
+/**
+ * This class carries the cached lookups of one UCD server between the
+ * controller and the node that publishes component versions. The controller
+ * holds the caches shared by every build, sends them with the publish task,
+ * and takes back the entries looked up or invalidated on the node, so that
+ * builds on different agents share one set of lookups. Lookups are kept apart
+ * for each user, as users may be allowed to see different components.
+ *
+ */
+public class ServerLookups implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private ExpiringCache.Snapshot<String, UUID> componentIds;
+    private ExpiringCache.Snapshot<String, Set<String>> applicationComponents;
+    private ExpiringCache.Snapshot<String, Set<String>> componentTags;
+    private ExpiringCache.Snapshot<String, PropertyHelper.PropSheetDef> propSheetDefs;
+
+    private ServerLookups() {
+    }
+
+    /**
+     * Get the prefix of the cache keys of the lookups made on a server by a user
+     *
+     * @param ucdUrl The URL of the UCD server
+     * @param udSite The UCD site, or null if the user is not known
+     * @param altUser The alternative user to run as, or null to use the site user
+     * @return The key prefix
+     */
+    public static String getKeyPrefix(URI ucdUrl, UCDeploySite udSite, UserBlock altUser) {
+        String user = "";
+
+        if (altUser != null) {
+            user = altUser.getAltUsername();
+        }
+        else if (udSite != null) {
+            user = udSite.getUser();
+        }
+
+        return ucdUrl.toString() + "|" + user + "|";
+    }
+
+    /**
+     * Copy the cached lookups a user made on a server in this JVM
+     *
+     * @param udSite The UCD site
+     * @param altUser The alternative user to run as, or null to use the site user
+     * @return The copied lookups
+     */
+    public static ServerLookups capture(UCDeploySite udSite, UserBlock altUser) {
+        ServerLookups lookups = new ServerLookups();
+        String keyPrefix = getKeyPrefix(udSite.getUri(), udSite, altUser);
+
+        lookups.componentIds = ComponentHelper.componentIds.snapshot(keyPrefix);
+        lookups.applicationComponents = ComponentHelper.applicationComponents.snapshot(keyPrefix);
+        lookups.componentTags = ComponentHelper.componentTags.snapshot(keyPrefix);
+        lookups.propSheetDefs = PropertyHelper.propSheetDefs.snapshot(keyPrefix);
+
+        return lookups;
+    }
+
+    /**
+     * Add these lookups to the caches of this JVM, keeping an entry left over
+     * from an earlier build where it has longer to live
+     */
+    public void install() {
+        ComponentHelper.componentIds.merge(componentIds);
+        ComponentHelper.applicationComponents.merge(applicationComponents);
+        ComponentHelper.componentTags.merge(componentTags);
+        PropertyHelper.propSheetDefs.merge(propSheetDefs);
+    }
+
+    /**
+     * Apply the lookups made and invalidated on a node to the caches of this JVM
+     *
+     * @param original The lookups sent to the node, as captured in this JVM
+     */
+    public void update(ServerLookups original) {
+        ComponentHelper.componentIds.update(original.componentIds, componentIds);
+        ComponentHelper.applicationComponents.update(original.applicationComponents, applicationComponents);
+        ComponentHelper.componentTags.update(original.componentTags, componentTags);
+        PropertyHelper.propSheetDefs.update(original.propSheetDefs, propSheetDefs);
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import hudson.AbortException;
+import hudson.util.Secret;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.HttpConnectionParams;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.urbancode.jenkins.plugins.ucdeploy.UCDeployPublisher.UserBlock;
+import com.urbancode.ud.client.ApplicationClient;
+
+/**
+ * This class waits on every running application process request of a UCD site
+ * from a single thread of that site. Builds register the requests they wait on
+ * and get a future that completes with the result, while the poller checks each
+ * request on its own backoff schedule. The load on the server grows with the
+ * polling rate rather than with the number of waiting builds, and a slow server
+ * only delays the builds waiting on it. The thread runs only while requests are
+ * being waited on, and the connections of a poller are closed once it has been
+ * idle for a while.
+ *
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class StatusPoller {
+    private static final Logger log = Logger.getLogger(StatusPoller.class.getName());
+
+    /* Consecutive failed checks of a request before its waiters are failed */
+    public static final int MAX_FAILURES = 3;
+
+    /* Milliseconds a status request may wait to connect or for data before it counts as failed */
+    public static final int SOCKET_TIMEOUT = Integer.getInteger(
+            StatusPoller.class.getName() + ".socketTimeout", 60000);
+
+    /* Minutes a poller without waiters is kept before its connections are closed */
+    public static final long IDLE_TIMEOUT = Long.getLong(
+            StatusPoller.class.getName() + ".idleTimeout", 10L);
+
+    private static final ConcurrentMap<String, StatusPoller> pollers = new ConcurrentHashMap<String, StatusPoller>();
+
+    private String key;
+    private UCDeploySite udSite;
+    private String user;
+    private Secret password;
+    private URI ucdUrl;
+    private volatile DefaultHttpClient httpClient;
+    private Map<String, Watch> watches = new ConcurrentHashMap<String, Watch>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> tick;
+    private long lastUsed = System.nanoTime();
+    private boolean closed = false;
+
+    /**
+     * A request being waited on
+     */
+    public static class Watch {
+        private String requestId;
+        private SettableFuture<String> future = SettableFuture.create();
+        private PollingStrategy polling = new PollingStrategy();
+        private volatile long nextPoll = System.nanoTime();
+        private int failures = 0;
+
+        private Watch(String requestId) {
+            this.requestId = requestId;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+
+        /**
+         * @return A future completed with the result of the request once it has finished
+         */
+        public ListenableFuture<String> getFuture() {
+            return future;
+        }
+
+        /**
+         * @return The number of times the status of the request has been checked
+         */
+        public int getPolls() {
+            return polling.getPolls();
+        }
+    }
+
+    private StatusPoller(String key, UCDeploySite udSite, String user, Secret password) throws AbortException {
+        this.key = key;
+        this.udSite = udSite;
+        this.user = user;
+        this.password = password;
+        this.ucdUrl = udSite.getUri();
+    }
+
+    /**
+     * Get the poller shared by all builds waiting on a site as the same user
+     *
+     * @param udSite The UCD site
+     * @param altUser The alternative user to run as, or null to use the site user
+     * @return The shared poller
+     * @throws AbortException
+     */
+    public static StatusPoller forSite(UCDeploySite udSite, UserBlock altUser) throws AbortException {
+        String user = altUser != null ? altUser.getAltUsername() : udSite.getUser();
+        Secret password = altUser != null ? altUser.getAltPassword() : udSite.getPassword();
+        // a changed password gets a poller of its own, the old one stops once it is idle
+        String key = udSite.getUrl() + "|" + user + "|" + (password != null ? password.getEncryptedValue() : "");
+
+        evictIdle();
+
+        while (true) {
+            StatusPoller poller = pollers.get(key);
+
+            if (poller == null) {
+                StatusPoller newPoller = new StatusPoller(key, udSite, user, password);
+                poller = pollers.putIfAbsent(key, newPoller);
+                if (poller == null) {
+                    poller = newPoller;
+                }
+            }
+
+            // a poller evicted since the lookup is never handed out, its replacement is looked up instead
+            if (poller.use()) {
+                return poller;
+            }
+        }
+    }
+
+    /**
+     * Close the connections of the pollers that have had no waiters for the idle timeout
+     */
+    private static void evictIdle() {
+        long idleNanos = TimeUnit.MINUTES.toNanos(IDLE_TIMEOUT);
+
+        for (StatusPoller poller : pollers.values()) {
+            poller.closeIfIdle(idleNanos);
+        }
+    }
+
+    /**
+     * Mark the poller as used, unless it has been closed
+     *
+     * @return Whether the poller is still open
+     */
+    private synchronized boolean use() {
+        if (closed) {
+            return false;
+        }
+        lastUsed = System.nanoTime();
+
+        return true;
+    }
+
+    /**
+     * Start waiting on an application process request
+     *
+     * @param requestId The id of the application process request
+     * @return The watch of the request
+     */
+    public synchronized Watch watch(String requestId) {
+        Watch watch = new Watch(requestId);
+        watches.put(requestId + "@" + System.identityHashCode(watch), watch);
+        lastUsed = System.nanoTime();
+        start();
+
+        return watch;
+    }
+
+    /**
+     * Stop waiting on a request, cancelling its future
+     *
+     * @param watch The watch of the request
+     */
+    public synchronized void cancel(Watch watch) {
+        watch.future.cancel(false);
+        watches.remove(watch.requestId + "@" + System.identityHashCode(watch));
+    }
+
+    private synchronized void start() {
+        if (closed) {
+            // a poller closed while idle reopens when a build it was handed to starts waiting again
+            closed = false;
+            pollers.putIfAbsent(key, this);
+        }
+        if (httpClient == null) {
+            httpClient = createClient();
+        }
+        if (tick == null) {
+            long period = Math.max(100L, PollingStrategy.INITIAL_INTERVAL / 2);
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "UCD deployment status poller for " + ucdUrl);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            tick = scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poll();
+                    }
+                    catch (RuntimeException ex) {
+                        // keep the schedule alive, the waiters are retried on the next tick
+                        log.log(Level.WARNING, "Failed to check application process statuses", ex);
+                    }
+                }
+            }, 0L, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stopIfIdle() {
+        if (watches.isEmpty() && tick != null) {
+            tick.cancel(false);
+            tick = null;
+            scheduler.shutdown();
+            scheduler = null;
+            lastUsed = System.nanoTime();
+        }
+    }
+
+    /**
+     * Close the connections of the poller and remove it from the shared pollers
+     * if it has had no waiters for the idle timeout
+     *
+     * @param idleNanos The idle timeout in nanoseconds
+     */
+    private synchronized void closeIfIdle(long idleNanos) {
+        if (!watches.isEmpty() || tick != null || System.nanoTime() - lastUsed <= idleNanos) {
+            return;
+        }
+
+        if (httpClient != null) {
+            httpClient.getConnectionManager().shutdown();
+            httpClient = null;
+        }
+        closed = true;
+        pollers.remove(key, this);
+    }
+
+    private DefaultHttpClient createClient() {
+        DefaultHttpClient client = udSite.getTempClient(user, password);
+        HttpConnectionParams.setConnectionTimeout(client.getParams(), SOCKET_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(client.getParams(), SOCKET_TIMEOUT);
+
+        return client;
+    }
+
+    /**
+     * Check every request that is due, one status request per request id however
+     * many builds wait on it
+     */
+    private void poll() {
+        Map<String, String> results = new HashMap<String, String>();
+        Map<String, Exception> errors = new HashMap<String, Exception>();
+        long now = System.nanoTime();
+
+        for (Map.Entry<String, Watch> entry : watches.entrySet()) {
+            Watch watch = entry.getValue();
+
+            if (watch.future.isDone()) {
+                watches.remove(entry.getKey());
+                continue;
+            }
+            if (now - watch.nextPoll < 0) {
+                continue;
+            }
+
+            String requestId = watch.requestId;
+            if (!results.containsKey(requestId) && !errors.containsKey(requestId)) {
+                try {
+                    results.put(requestId, new ApplicationClient(ucdUrl, httpClient).getApplicationProcessStatus(requestId));
+                }
+                catch (Exception ex) {
+                    errors.put(requestId, ex);
+                }
+            }
+
+            watch.polling.recordPoll();
+
+            if (errors.containsKey(requestId)) {
+                Exception ex = errors.get(requestId);
+                if (++watch.failures >= MAX_FAILURES) {
+                    watch.future.setException(new AbortException("Failed to acquire status of application process " +
+                            "with id '" + requestId + "' : " + ex.getMessage()));
+                    watches.remove(entry.getKey());
+                    continue;
+                }
+                log.log(Level.FINE, "Failed to check application process " + requestId, ex);
+                watch.nextPoll = System.nanoTime() +
+                        TimeUnit.MILLISECONDS.toNanos(watch.polling.failureDelay(watch.failures));
+                continue;
+            }
+
+            String result = results.get(requestId);
+            watch.failures = 0;
+
+            if (isFinished(result)) {
+                watch.future.set(result);
+                watches.remove(entry.getKey());
+            }
+            else {
+                watch.nextPoll = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(watch.polling.nextDelay(result));
+            }
+        }
+
+        stopIfIdle();
+    }
+
+    /**
+     * @param result The result reported for an application process request
+     * @return Whether the request has finished, one way or another
+     */
+    public static boolean isFinished(String result) {
+        return result != null
+                && !result.isEmpty()
+                && !result.equalsIgnoreCase("NONE")
+                && !result.equalsIgnoreCase("SCHEDULED FOR FUTURE");
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class holds the summary of the file upload of one component version. It
+ * is sent back from the node running the push and kept with the build.
+ *
+ */
+public class TransferReport implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String component;
+    private String version;
+    private int fileCount;
+    private int transferCount;
+    private int retries;
+    private long bytes;
+    private long elapsedMillis;
+    private long p50Millis;
+    private long p95Millis;
+    private long p99Millis;
+    private long rateLimit;
+    private long throttledMillis;
+    private List<Transfer> slowest;
+
+    /**
+     * One request sending the files of a work unit to the server
+     */
+    public static class Transfer implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public static final Comparator<Transfer> BY_MILLIS = new Comparator<Transfer>() {
+            @Override
+            public int compare(Transfer first, Transfer second) {
+                return first.millis < second.millis ? -1 : (first.millis == second.millis ? 0 : 1);
+            }
+        };
+
+        private String label;
+        private long bytes;
+        private long millis;
+
+        public Transfer(String label, long bytes, long millis) {
+            this.label = label;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public String getSize() {
+            return formatMegabytes(bytes);
+        }
+    }
+
+    public TransferReport(
+            String component,
+            String version,
+            int fileCount,
+            int transferCount,
+            int retries,
+            long bytes,
+            long elapsedMillis,
+            long p50Millis,
+            long p95Millis,
+            long p99Millis,
+            long rateLimit,
+            long throttledMillis,
+            List<Transfer> slowest)
+    {
+        this.component = component;
+        this.version = version;
+        this.fileCount = fileCount;
+        this.transferCount = transferCount;
+        this.retries = retries;
+        this.bytes = bytes;
+        this.elapsedMillis = elapsedMillis;
+        this.p50Millis = p50Millis;
+        this.p95Millis = p95Millis;
+        this.p99Millis = p99Millis;
+        this.rateLimit = rateLimit;
+        this.throttledMillis = throttledMillis;
+        this.slowest = slowest;
+    }
+
+    public String getComponent() {
+        return component;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getTransferCount() {
+        return transferCount;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public long getP50Millis() {
+        return p50Millis;
+    }
+
+    public long getP95Millis() {
+        return p95Millis;
+    }
+
+    public long getP99Millis() {
+        return p99Millis;
+    }
+
+    public long getRateLimit() {
+        return rateLimit;
+    }
+
+    public long getThrottledMillis() {
+        return throttledMillis;
+    }
+
+    public boolean isRateLimited() {
+        return rateLimit > 0;
+    }
+
+    public String getRateLimitText() {
+        return String.format("%.2f MB/s", toMegabytes(rateLimit));
+    }
+
+    public String getThrottledSeconds() {
+        return String.format("%.1f", throttledMillis / 1000.0);
+    }
+
+    public List<Transfer> getSlowest() {
+        return slowest;
+    }
+
+    public String getSize() {
+        return formatMegabytes(bytes);
+    }
+
+    public String getSeconds() {
+        return String.format("%.1f", getElapsedSeconds());
+    }
+
+    /**
+     * The effective throughput of file data
+     *
+     * @return The throughput formatted in MB/s
+     */
+    public String getThroughput() {
+        return String.format("%.2f MB/s", toMegabytes(bytes) / getElapsedSeconds());
+    }
+
+    /**
+     * Print the report to the build log
+     *
+     * @param out The stream to print to
+     */
+    public void print(PrintStream out) {
+        out.println(String.format("Sent %d files (%s) in %s seconds, %s effective", fileCount, getSize(), getSeconds(),
+                getThroughput()));
+        out.println(String.format("Latency per work unit over %d requests: p50 %d ms, p95 %d ms, p99 %d ms, %d retried " +
+                "work units", transferCount, p50Millis, p95Millis, p99Millis, retries));
+
+        if (isRateLimited()) {
+            out.println(String.format("Upload bandwidth limited to %s, connections waited %s seconds in total for " +
+                    "the limit", getRateLimitText(), getThrottledSeconds()));
+        }
+
+        if (!slowest.isEmpty()) {
+            out.println("Slowest work units:");
+            for (Transfer transfer : slowest) {
+                out.println(String.format("    %6d ms  %10s  %s", transfer.getMillis(), transfer.getSize(),
+                        transfer.getLabel()));
+            }
+        }
+    }
+
+    private double getElapsedSeconds() {
+        return Math.max(elapsedMillis, 1L) / 1000.0;
+    }
+
+    private static double toMegabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    private static String formatMegabytes(long bytes) {
+        return String.format("%.1f MB", toMegabytes(bytes));
+    }
+}
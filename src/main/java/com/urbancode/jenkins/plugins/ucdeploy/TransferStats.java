@@ -0,0 +1,137 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.urbancode.jenkins.plugins.ucdeploy.TransferReport.Transfer;
+
+/**
+ * This class collects the measurements of the file transfers of a push while
+ * the upload is running. Latencies are measured per request, and each request
+ * sends one work unit. Only the latencies and the slowest requests are kept, so
+ * the memory used stays small for pushes of many files.
+ *
+ */
+public class TransferStats {
+    public static final int SLOWEST_COUNT = 10;
+
+    private AtomicLong bytes = new AtomicLong();
+    private AtomicInteger retries = new AtomicInteger();
+    private AtomicLong throttledNanos = new AtomicLong();
+    private long rateLimit = 0;
+    private long[] latencies = new long[256];
+    private int transferCount = 0;
+    private PriorityQueue<Transfer> slowest = new PriorityQueue<Transfer>(SLOWEST_COUNT + 1, Transfer.BY_MILLIS);
+
+    /**
+     * Add the bytes of a request body
+     *
+     * @param sent The number of bytes sent over the connection
+     */
+    public void addBytes(long sent) {
+        bytes.addAndGet(sent);
+    }
+
+    /**
+     * Record a completed request, each of which sends the files of one work unit
+     *
+     * @param label The description of the files sent by the request
+     * @param bytes The number of bytes sent
+     * @param millis The time from sending the request to receiving the response
+     */
+    public synchronized void recordTransfer(String label, long bytes, long millis) {
+        if (transferCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[transferCount++] = millis;
+
+        slowest.add(new Transfer(label, bytes, millis));
+        if (slowest.size() > SLOWEST_COUNT) {
+            slowest.poll();
+        }
+    }
+
+    /**
+     * Record a work unit that failed and is sent again
+     */
+    public void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * Add time a connection spent waiting for the upload bandwidth limit
+     *
+     * @param nanos The number of nanoseconds waited
+     */
+    public void addThrottledNanos(long nanos) {
+        throttledNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Set the bandwidth limit the upload is held to, for the report
+     *
+     * @param bytesPerSecond The limit in bytes per second, or 0 if the upload is not limited
+     */
+    public void setRateLimit(long bytesPerSecond) {
+        this.rateLimit = bytesPerSecond;
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Summarize the measurements collected so far
+     *
+     * @param component The name of the component the files were pushed to
+     * @param version The name of the version the files were pushed to
+     * @param fileCount The number of files pushed
+     * @param elapsedMillis The wall clock time of the upload
+     * @return The report of the upload
+     */
+    public synchronized TransferReport createReport(String component, String version, int fileCount, long elapsedMillis) {
+        long[] sorted = Arrays.copyOf(latencies, transferCount);
+        Arrays.sort(sorted);
+
+        List<Transfer> slowestList = new ArrayList<Transfer>(slowest);
+        Collections.sort(slowestList, Collections.reverseOrder(Transfer.BY_MILLIS));
+
+        return new TransferReport(component,
+                                  version,
+                                  fileCount,
+                                  transferCount,
+                                  retries.get(),
+                                  bytes.get(),
+                                  elapsedMillis,
+                                  percentile(sorted, 50),
+                                  percentile(sorted, 95),
+                                  percentile(sorted, 99),
+                                  rateLimit,
+                                  throttledNanos.get() / 1000000L,
+                                  slowestList);
+    }
+
+    /**
+     * Nearest rank percentile of a sorted array
+     */
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
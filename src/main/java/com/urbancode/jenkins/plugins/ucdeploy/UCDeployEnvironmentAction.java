@@ -0,0 +1,126 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.EnvironmentContributor;
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import hudson.util.DescribableList;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jenkins.model.Jenkins;
+
+/**
+ * This class holds the environment variables set by UCD steps of a run, such
+ * as the ids of created component versions and the fetched application
+ * properties. They are added to the environment of the run only, instead of
+ * saving the global configuration of Jenkins for every variable.
+ *
+ */
+public class UCDeployEnvironmentAction extends InvisibleAction {
+    private Map<String, String> variables = new TreeMap<String, String>();
+
+    public synchronized Map<String, String> getVariables() {
+        return new TreeMap<String, String>(variables);
+    }
+
+    public synchronized void putAll(Map<String, String> newVariables) {
+        variables.putAll(newVariables);
+    }
+
+    /**
+     * Add variables to the environment of a run, and to the global environment
+     * variables in a single save when that is enabled
+     *
+     * @param run The run to add the variables to
+     * @param newVariables The variables to add
+     * @param listener The build listener
+     * @throws IOException
+     */
+    public static void export(Run<?, ?> run, Map<String, String> newVariables, TaskListener listener) throws IOException {
+        if (newVariables.isEmpty()) {
+            return;
+        }
+
+        synchronized (run) {
+            UCDeployEnvironmentAction action = run.getAction(UCDeployEnvironmentAction.class);
+
+            if (action == null) {
+                action = new UCDeployEnvironmentAction();
+                action.putAll(newVariables);
+                run.addAction(action);
+            }
+            else {
+                action.putAll(newVariables);
+            }
+        }
+        // keep the variables with the run, so they are still there after a restart
+        run.save();
+        listener.getLogger().println("Added " + newVariables.size() + " environment variables to the build");
+
+        if (UCDeployPublisher.GLOBALDESCRIPTOR.getSaveGlobalEnvVars()) {
+            saveGlobal(newVariables);
+            listener.getLogger().println("Saved " + newVariables.size() + " global environment variables");
+        }
+    }
+
+    /**
+     * Write variables to the global environment variables of Jenkins with one save
+     *
+     * @param newVariables The variables to write
+     * @throws IOException
+     */
+    public static void saveGlobal(Map<String, String> newVariables) throws IOException {
+        Jenkins jenkins = Jenkins.getInstance();
+
+        synchronized (UCDeployEnvironmentAction.class) {
+            DescribableList<NodeProperty<?>, NodePropertyDescriptor> globalNodeProperties =
+                    jenkins.getGlobalNodeProperties();
+            List<EnvironmentVariablesNodeProperty> envVarsNodePropertyList =
+                    globalNodeProperties.getAll(EnvironmentVariablesNodeProperty.class);
+            EnvVars envVars;
+
+            if (envVarsNodePropertyList == null || envVarsNodePropertyList.isEmpty()) {
+                EnvironmentVariablesNodeProperty newEnvVarsNodeProperty = new EnvironmentVariablesNodeProperty();
+                globalNodeProperties.add(newEnvVarsNodeProperty);
+                envVars = newEnvVarsNodeProperty.getEnvVars();
+            }
+            else {
+                envVars = envVarsNodePropertyList.get(0).getEnvVars();
+            }
+
+            envVars.putAll(newVariables);
+            jenkins.save();
+        }
+    }
+
+    /**
+     * Adds the variables of a run to its environment
+     */
+    @Extension
+    public static class Contributor extends EnvironmentContributor {
+        @Override
+        public void buildEnvironmentFor(Run r, EnvVars envs, TaskListener listener) {
+            UCDeployEnvironmentAction action = r.getAction(UCDeployEnvironmentAction.class);
+
+            if (action != null) {
+                envs.putAll(action.getVariables());
+            }
+        }
+    }
+}
@@ -31,6 +31,10 @@ import jenkins.tasks.SimpleBuildStep;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import net.sf.json.JSONObject;
 
@@ -59,6 +63,9 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
     private String siteName;
     private UserBlock altUser;
     private VersionBlock component;
+    private List<VersionBlock> components;
+    private String componentParallelism;
+    private Boolean componentFailFast;
     private DeployBlock deploy;
 
     /**
@@ -143,6 +150,83 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
         return false;
     }
 
+    public List<VersionBlock> getComponents() {
+        if (components != null) {
+            return components;
+        }
+        else {
+            return new ArrayList<VersionBlock>();
+        }
+    }
+
+    /**
+     * Set additional components to publish versions of in the same step. This
+     * is only available from Pipeline, the job configuration page has no fields
+     * for it.
+     *
+     * @param components The blocks of the additional components
+     */
+    @DataBoundSetter
+    public void setComponents(List<VersionBlock> components) {
+        this.components = components;
+    }
+
+    public String getComponentParallelism() {
+        if (componentParallelism != null) {
+            return componentParallelism;
+        }
+        else {
+            return "";
+        }
+    }
+
+    /**
+     * Set the maximum number of components published at once, only available
+     * from Pipeline together with the additional components
+     *
+     * @param componentParallelism The number of components, or empty for the default
+     */
+    @DataBoundSetter
+    public void setComponentParallelism(String componentParallelism) {
+        this.componentParallelism = componentParallelism;
+    }
+
+    public Boolean getComponentFailFast() {
+        if (componentFailFast != null) {
+            return componentFailFast;
+        }
+        else {
+            return false;
+        }
+    }
+
+    /**
+     * Set whether the remaining components are cancelled after the first
+     * failure, only available from Pipeline together with the additional components
+     *
+     * @param componentFailFast true to stop at the first failure, false to publish every component
+     */
+    @DataBoundSetter
+    public void setComponentFailFast(Boolean componentFailFast) {
+        this.componentFailFast = componentFailFast;
+    }
+
+    /**
+     * Get every component to publish a version of, the configured component first
+     *
+     * @return The list of component blocks
+     */
+    public List<VersionBlock> getAllComponents() {
+        List<VersionBlock> allComponents = new ArrayList<VersionBlock>();
+
+        if (component != null) {
+            allComponents.add(component);
+        }
+        allComponents.addAll(getComponents());
+
+        return allComponents;
+    }
+
     public String getComponentName() {
         String componentName = "";
 
@@ -190,6 +274,16 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
         return componentApplication;
     }
 
+    public Boolean getComponentReconcile() {
+        Boolean componentReconcile = false;
+
+        if (getCreateComponent() != null) {
+            componentReconcile = getCreateComponent().getComponentReconcile();
+        }
+
+        return componentReconcile;
+    }
+
     public DeliveryBlock getDelivery() {
         if (component != null) {
             return component.getDelivery();
@@ -277,6 +371,60 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
         return false;
     }
 
+    public Boolean getPushDelta() {
+        if (getDelivery() != null && getDelivery() instanceof Push) {
+            return ((Push)getDelivery()).getPushDelta();
+        }
+
+        return false;
+    }
+
+    public String getPushConcurrency() {
+        String pushConcurrency = "";
+
+        if (getDelivery() != null && getDelivery() instanceof Push) {
+            pushConcurrency = ((Push)getDelivery()).getPushConcurrency();
+        }
+
+        return pushConcurrency;
+    }
+
+    public Boolean getPushResume() {
+        if (getDelivery() != null && getDelivery() instanceof Push) {
+            return ((Push)getDelivery()).getPushResume();
+        }
+
+        return false;
+    }
+
+    public String getPushMaxUploadRate() {
+        String pushMaxUploadRate = "";
+
+        if (getDelivery() != null && getDelivery() instanceof Push) {
+            pushMaxUploadRate = ((Push)getDelivery()).getPushMaxUploadRate();
+        }
+
+        return pushMaxUploadRate;
+    }
+
+    public Boolean getPushPack() {
+        if (getDelivery() != null && getDelivery() instanceof Push) {
+            return ((Push)getDelivery()).getPushPack();
+        }
+
+        return false;
+    }
+
+    public String getPushPackThreshold() {
+        String pushPackThreshold = FilePacker.DEFAULT_THRESHOLD;
+
+        if (getDelivery() != null && getDelivery() instanceof Push) {
+            pushPackThreshold = ((Push)getDelivery()).getPushPackThreshold();
+        }
+
+        return pushPackThreshold;
+    }
+
     public String getPullProperties() {
         String pullProperties = "";
 
@@ -458,6 +606,24 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
         return deployDesc;
     }
 
+    public String getDeployParallelism() {
+        String deployParallelism = "";
+
+        if (deploy != null) {
+            deployParallelism = deploy.getDeployParallelism();
+        }
+
+        return deployParallelism;
+    }
+
+    public Boolean getDeployFailFast() {
+        if (deploy != null) {
+            return deploy.getDeployFailFast();
+        }
+
+        return false;
+    }
+
     public Boolean getDeployOnlyChanged() {
         if (deploy.getDeployOnlyChanged() == null) {
             return false;
@@ -504,14 +670,27 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
     @Override
     public void perform(final Run<?, ?> build, FilePath workspace, Launcher launcher, final TaskListener listener)
             throws AbortException, InterruptedException, IOException {
-        boolean pushFailedBuild = false;
-        pushFailedBuild = ((Push)getDelivery()).getPushFailedBuild();
+        List<VersionBlock> allComponents = getAllComponents();
+
         if (build.getResult() == Result.FAILURE || build.getResult() == Result.ABORTED) {
-            if(pushFailedBuild != true || build.getResult() == Result.ABORTED){
+            // each component decides for itself whether a failed build is pushed
+            List<VersionBlock> failedBuildComponents = new ArrayList<VersionBlock>();
+            if (build.getResult() == Result.FAILURE) {
+                for (VersionBlock block : allComponents) {
+                    if (block.getDelivery() instanceof Push && ((Push)block.getDelivery()).getPushFailedBuild()) {
+                        failedBuildComponents.add(block);
+                    }
+                    else {
+                        listener.getLogger().println("Skipping component '" + block.getComponentName() + "' - Push " +
+                                                     "Failed Build is not checked.");
+                    }
+                }
+            }
+            if (failedBuildComponents.isEmpty()) {
                 throw new AbortException("Skip artifacts upload to IBM UrbanCode Deploy - build failed or aborted.");
-            } else {
-                listener.getLogger().println("Pushing Failed Build");   
             }
+            listener.getLogger().println("Pushing Failed Build");
+            allComponents = failedBuildComponents;
         }
 
         UCDeploySite udSite = getSite();
@@ -533,26 +712,56 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
 
         EnvVars envVars = build.getEnvironment(listener);
 
-        if (componentChecked() ) {
+        if (!allComponents.isEmpty()) {
             String buildUrl = Hudson.getInstance().getRootUrl() + build.getUrl();
+            // the server lookups are cached on the controller and lent to a remote node for the publish
+            ServerLookups lookups = workspace.isRemote() ? ServerLookups.capture(udSite, altUser) : null;
             PublishArtifactsCallable task = new PublishArtifactsCallable(
                     buildUrl,
                     build.getDisplayName(),
                     udSite,
                     altUser,
-                    getComponent(),
+                    new ArrayList<VersionBlock>(allComponents),
+                    readParallelism(envVars.expand(getComponentParallelism())),
+                    getComponentFailFast(),
                     envVars,
+                    lookups,
                     listener);
 
-            workspace.act(task);
+            PublishResult result = workspace.act(task);
+            List<TransferReport> reports = result.getReports();
+
+            if (lookups != null) {
+                result.getLookups().update(lookups);
+            }
+
+            UCDeployEnvironmentAction.export(build, result.getEnvVars(), listener);
+
+            if (!reports.isEmpty()) {
+                UploadReportAction reportAction = build.getAction(UploadReportAction.class);
+
+                if (reportAction == null) {
+                    build.addAction(new UploadReportAction(reports));
+                }
+                else {
+                    reportAction.addReports(reports);
+                }
+            }
+
+            if (result.getFailure() != null) {
+                throw new AbortException(result.getFailure());
+            }
         }
 
         if (deployChecked()) {
             DeployHelper deployHelper = new DeployHelper(udSite.getUri(), udClient, listener, envVars);
+            deployHelper.setConnections(udSite, altUserChecked() ? altUser : null);
+            deployHelper.setStatusPoller(StatusPoller.forSite(udSite, altUserChecked() ? altUser : null));
 
             /* Throw AbortException so that Jenkins will mark job as faulty */
             try {
                 deployHelper.runDeployment(getDeploy());
+                UCDeployEnvironmentAction.export(build, deployHelper.getExportedVars(), listener);
             }
             catch (IOException ex) {
                 throw new AbortException("Deployment has failed due to IOException " + ex.getMessage());
@@ -563,6 +772,30 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
         }
     }
 
+    /**
+     * Read the maximum number of components published at once
+     *
+     * @param parallelism The number of components, or empty for the default
+     * @return The number of components
+     * @throws AbortException
+     */
+    private int readParallelism(String parallelism) throws AbortException {
+        if (parallelism == null || parallelism.trim().isEmpty()) {
+            return BatchHelper.DEFAULT_PARALLELISM;
+        }
+
+        try {
+            int value = Integer.parseInt(parallelism.trim());
+            if (value < 1) {
+                throw new AbortException("Component Parallelism must be at least 1 (Current value: " + value + ")");
+            }
+            return value;
+        }
+        catch (NumberFormatException ex) {
+            throw new AbortException("Component Parallelism must be a number: '" + parallelism + "'");
+        }
+    }
+
     public static class UserBlock implements Serializable {
         private String altUsername;
         private Secret altPassword;
@@ -590,18 +823,67 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
         }
     }
 
+    /**
+     * The outcome of publishing component versions on a node, returned to the controller
+     */
+    private static class PublishResult implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private ArrayList<TransferReport> reports;
+        private HashMap<String, String> envVars;
+        private String failure;
+        private ServerLookups lookups;
+
+        public PublishResult(
+                List<TransferReport> reports,
+                Map<String, String> envVars,
+                String failure,
+                ServerLookups lookups)
+        {
+            this.reports = new ArrayList<TransferReport>(reports);
+            this.envVars = new HashMap<String, String>(envVars);
+            this.failure = failure;
+            this.lookups = lookups;
+        }
+
+        public List<TransferReport> getReports() {
+            return reports;
+        }
+
+        public Map<String, String> getEnvVars() {
+            return envVars;
+        }
+
+        /**
+         * @return The reason publishing failed after some components completed, or null if every component succeeded
+         */
+        public String getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return The server lookups cached on the node once publishing finished, or null if it ran on the controller
+         */
+        public ServerLookups getLookups() {
+            return lookups;
+        }
+    }
+
     /**
      * Callable class that can be serialized and executed on a remote node
      *
      */
-    private static class PublishArtifactsCallable implements FileCallable<Boolean> {
+    private static class PublishArtifactsCallable implements FileCallable<PublishResult> {
         private static final long serialVersionUID = 1L;
         String buildUrl;
         String buildName;
         UCDeploySite udSite;
         UserBlock altUser;
-        VersionBlock component;
+        ArrayList<VersionBlock> components;
+        int parallelism;
+        boolean failFast;
         EnvVars envVars;
+        ServerLookups lookups;
         TaskListener listener;
 
         public PublishArtifactsCallable(
@@ -609,16 +891,22 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
                 String buildName,
                 UCDeploySite udSite,
                 UserBlock altUser,
-                VersionBlock component,
+                ArrayList<VersionBlock> components,
+                int parallelism,
+                boolean failFast,
                 EnvVars envVars,
+                ServerLookups lookups,
                 TaskListener listener)
         {
             this.buildUrl = buildUrl;
             this.buildName = buildName;
             this.udSite = udSite;
             this.altUser = altUser; // used to acquire udClient in a serializable environment
-            this.component = component;
+            this.components = components;
+            this.parallelism = parallelism;
+            this.failFast = failFast;
             this.envVars = envVars;
+            this.lookups = lookups;
             this.listener = listener;
         }
 
@@ -631,9 +919,13 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
         }
 
         @Override
-        public Boolean invoke(File workspace, VirtualChannel node) throws IOException, InterruptedException {
+        public PublishResult invoke(File workspace, VirtualChannel node) throws IOException, InterruptedException {
             DefaultHttpClient udClient;
 
+            if (lookups != null) {
+                lookups.install();
+            }
+
             if (altUser != null) {
                 udClient = udSite.getTempClient(altUser.getAltUsername(), altUser.getAltPassword());
             }
@@ -641,10 +933,54 @@ public class UCDeployPublisher extends Builder implements SimpleBuildStep {
                 udClient = udSite.getClient();
             }
 
-            VersionHelper versionHelper = new VersionHelper(udSite.getUri(), udClient, listener, envVars);
-            versionHelper.createVersion(component, "Jenkins Build " + buildName, buildUrl);
+            File hashCacheFile = HashCache.getCacheFile(workspace);
+            HashCache hashCache;
+            try {
+                hashCache = HashCache.load(hashCacheFile);
+            }
+            catch (IOException ex) {
+                listener.getLogger().println("[Warning] Failed to read the file hash cache: " + ex.getMessage());
+                hashCache = new HashCache();
+            }
 
-            return true;
+            List<TransferReport> reports;
+            Map<String, String> exportedVars;
+            String failure = null;
+            try {
+                if (components.size() == 1) {
+                    VersionHelper versionHelper = new VersionHelper(udSite, altUser, udClient, workspace, hashCache, listener, envVars);
+                    versionHelper.createVersion(components.get(0), "Jenkins Build " + buildName, buildUrl);
+                    reports = versionHelper.getTransferReports();
+                    exportedVars = versionHelper.getExportedVars();
+                }
+                else {
+                    BatchHelper batchHelper = new BatchHelper(udSite, altUser, workspace, hashCache, listener, envVars);
+                    try {
+                        batchHelper.publish(components, parallelism, failFast, "Jenkins Build " + buildName, buildUrl);
+                    }
+                    catch (AbortException ex) {
+                        // the completed components are still reported and exported before the build fails
+                        failure = ex.getMessage();
+                    }
+                    reports = batchHelper.getTransferReports();
+                    exportedVars = batchHelper.getExportedVars();
+                }
+            }
+            finally {
+                if (hashCache.isUsed()) {
+                    try {
+                        hashCache.save(hashCacheFile);
+                    }
+                    catch (IOException ex) {
+                        listener.getLogger().println("[Warning] Failed to write the file hash cache: " + ex.getMessage());
+                    }
+                }
+            }
+
+            return new PublishResult(reports,
+                                     exportedVars,
+                                     failure,
+                                     lookups != null ? ServerLookups.capture(udSite, altUser) : null);
         }
     }
 
@@ -47,6 +47,8 @@ public class UCDeploySite implements Serializable {
 
     private boolean trustAllCerts;
 
+    private String maxUploadRate;
+
     public static DefaultHttpClient client;
 
     /**
@@ -242,6 +244,31 @@ public class UCDeploySite implements Serializable {
         this.trustAllCerts = trustAllCerts;
     }
 
+    /**
+     * Gets the upload bandwidth limit.
+     *
+     * @return the limit in MB/s, or an empty string if uploads are not limited
+     */
+    public String getMaxUploadRate() {
+        if (maxUploadRate != null) {
+            return maxUploadRate;
+        }
+        else {
+            return "";
+        }
+    }
+
+    /**
+     * Sets the upload bandwidth limit shared by all uploads from one node to this site
+     *
+     * @param maxUploadRate
+     *          the limit in MB/s, empty or 0 for no limit
+     */
+    @DataBoundSetter
+    public void setMaxUploadRate(String maxUploadRate) {
+        this.maxUploadRate = maxUploadRate;
+    }
+
     /**
      * Test whether the client can connect to the UCD site
      *
@@ -0,0 +1,570 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import hudson.AbortException;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import com.urbancode.ud.client.VersionClient;
+
+/**
+ * This class provides concurrent upload of component version files to IBM
+ * UrbanCode Deploy. The matched file set is split into work units, each unit
+ * holding files from a single directory, and the units are uploaded over several
+ * pooled connections at once via uDeployRestClient abstracted REST calls. Units
+ * can be submitted while the files are still being matched, so the upload starts
+ * before the walk of the base directory ends.
+ *
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class UploadHelper {
+    public static final int FILES_PER_UNIT = 250;
+    public static final int UNIT_ATTEMPTS = 3;
+    public static final long RETRY_DELAY = 2000L;
+    public static final String STATE_DIR_NAME = "ucdeploy";
+
+    /* Units queued per connection before matching waits for uploads to catch up */
+    private static final int PENDING_UNITS_PER_CONNECTION = 2;
+
+    /* Completed units between progress messages */
+    private static final int PROGRESS_INTERVAL = 100;
+
+    private URI ucdUrl;
+    private ClientPool clientPool;
+    private int maxConnections;
+    private TaskListener listener;
+    private Map<DefaultHttpClient, UploadInterceptor> interceptors =
+            new ConcurrentHashMap<DefaultHttpClient, UploadInterceptor>();
+    private TransferStats stats = new TransferStats();
+    private UploadJournal journal;
+    private BandwidthLimiter limiter;
+    private long retryDelay = RETRY_DELAY;
+
+    private File base;
+    private String component;
+    private String version;
+    private ExecutorService executor;
+    private CompletionService<UploadUnit> completionService;
+    private int maxPending;
+    private int submitted;
+    private int completed;
+    private int fileCount;
+    private long startTime;
+
+    public UploadHelper(URI ucdUrl, ClientPool clientPool, TaskListener listener) {
+        this(ucdUrl, clientPool, clientPool.getMaxClients(), listener);
+    }
+
+    /**
+     * Constructor used when the pool is shared with other uploads, so that this
+     * upload only uses some of its clients at once
+     *
+     * @param ucdUrl The url of the UCD server
+     * @param clientPool The pool to borrow clients from
+     * @param maxConnections The maximum number of units uploaded at once
+     * @param listener The build listener
+     */
+    public UploadHelper(URI ucdUrl, ClientPool clientPool, int maxConnections, TaskListener listener) {
+        this.ucdUrl = ucdUrl;
+        this.clientPool = clientPool;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.listener = listener;
+    }
+
+    /**
+     * Record each unit confirmed by the server in a checkpoint journal
+     *
+     * @param journal The open journal to record units in
+     */
+    public void setJournal(UploadJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Hold the upload to a bandwidth limit shared with other uploads to the same server
+     *
+     * @param limiter The shared limiter, or null to upload at full speed
+     */
+    public void setLimiter(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+        stats.setRateLimit(limiter != null ? limiter.getBytesPerSecond() : 0);
+    }
+
+    /**
+     * Set the wait before the first retry of a failed unit, which doubles with each attempt
+     *
+     * @param retryDelay The wait in milliseconds
+     */
+    void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * A set of files in one directory, uploaded with a single REST call. The
+     * directory is used as both the base and the offset of the upload, so the
+     * files land at the same relative path in the version.
+     */
+    public static class UploadUnit {
+        private String offset;
+        private List<String> fileNames = new ArrayList<String>();
+        private File sourceDir;
+        private List<String> packedPaths;
+
+        public UploadUnit(String offset) {
+            this.offset = offset;
+        }
+
+        public String getOffset() {
+            return offset;
+        }
+
+        public List<String> getFileNames() {
+            return fileNames;
+        }
+
+        /**
+         * The directory holding the files of the unit when it is not below the base
+         * directory, as for an archive of packed files
+         *
+         * @return The source directory, or null if the files are below the base directory
+         */
+        public File getSourceDir() {
+            return sourceDir;
+        }
+
+        public List<String> getPackedPaths() {
+            return packedPaths;
+        }
+
+        /**
+         * The paths of the files of the base directory that the unit delivers
+         *
+         * @return The relative paths of the packed files, or of the unit's own files
+         */
+        public List<String> getSourcePaths() {
+            return packedPaths != null ? packedPaths : getRelativePaths();
+        }
+
+        public List<String> getRelativePaths() {
+            List<String> paths = new ArrayList<String>();
+
+            for (String fileName : fileNames) {
+                if (offset.isEmpty()) {
+                    paths.add(fileName);
+                }
+                else {
+                    paths.add(offset + "/" + fileName);
+                }
+            }
+
+            return paths;
+        }
+    }
+
+    /**
+     * Get the directory holding upload state for a workspace. It is kept in the
+     * workspace's temporary directory so that it is never matched by the upload
+     * patterns and survives between builds.
+     *
+     * @param workspace The workspace of the build
+     * @return The upload state directory
+     */
+    public static File getStateDir(File workspace) {
+        File tempDir = new File(workspace.getParentFile(), workspace.getName() + "@tmp");
+        return new File(tempDir, STATE_DIR_NAME);
+    }
+
+    /**
+     * Convert a name into a string that is safe to use as a file name
+     *
+     * @param name The name to convert
+     * @return The file name
+     */
+    public static String toFileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Groups files into upload units by directory as they are matched, handing on
+     * each unit as soon as it is full or the walk has left its directory, so that
+     * only the units of the directories being walked are held in memory
+     */
+    public abstract static class UnitSplitter {
+        private int filesPerUnit;
+        private Map<String, UploadUnit> openUnits = new LinkedHashMap<String, UploadUnit>();
+
+        /**
+         * @param filesPerUnit The maximum number of files to place in a single unit
+         */
+        public UnitSplitter(int filesPerUnit) {
+            this.filesPerUnit = Math.max(1, filesPerUnit);
+        }
+
+        /**
+         * Receive a complete unit
+         *
+         * @param unit The unit
+         * @throws AbortException
+         */
+        protected abstract void unitReady(UploadUnit unit) throws AbortException;
+
+        /**
+         * Add a file to the open unit of its directory
+         *
+         * @param relativePath The '/' separated path of the file relative to the base directory
+         * @throws AbortException
+         */
+        public void addFile(String relativePath) throws AbortException {
+            int delim = relativePath.lastIndexOf('/');
+            String dir = delim < 0 ? "" : relativePath.substring(0, delim);
+
+            UploadUnit unit = openUnits.get(dir);
+            if (unit == null) {
+                unit = new UploadUnit(dir);
+                openUnits.put(dir, unit);
+            }
+
+            unit.getFileNames().add(relativePath.substring(delim + 1));
+
+            if (unit.getFileNames().size() >= filesPerUnit) {
+                openUnits.remove(dir);
+                unitReady(unit);
+            }
+        }
+
+        /**
+         * Hand on the open unit of a directory that holds no further files
+         *
+         * @param relativeDir The '/' separated path of the directory, or "" for the base directory
+         * @throws AbortException
+         */
+        public void endDirectory(String relativeDir) throws AbortException {
+            UploadUnit unit = openUnits.remove(relativeDir);
+
+            if (unit != null) {
+                unitReady(unit);
+            }
+        }
+
+        /**
+         * Hand on every open unit
+         *
+         * @throws AbortException
+         */
+        public void flush() throws AbortException {
+            List<UploadUnit> units = new ArrayList<UploadUnit>(openUnits.values());
+            openUnits.clear();
+
+            for (UploadUnit unit : units) {
+                unitReady(unit);
+            }
+        }
+    }
+
+    /**
+     * Split a list of relative file paths into upload units grouped by directory
+     *
+     * @param relativePaths The '/' separated paths of the files relative to the base directory
+     * @param filesPerUnit The maximum number of files to place in a single unit
+     * @return The list of upload units
+     */
+    public static List<UploadUnit> createUnits(List<String> relativePaths, int filesPerUnit) {
+        final List<UploadUnit> units = new ArrayList<UploadUnit>();
+        UnitSplitter splitter = new UnitSplitter(filesPerUnit) {
+            @Override
+            protected void unitReady(UploadUnit unit) {
+                units.add(unit);
+            }
+        };
+
+        try {
+            for (String path : relativePaths) {
+                splitter.addFile(path);
+            }
+            splitter.flush();
+        }
+        catch (AbortException ex) {
+            // collecting units into a list does not fail
+            throw new IllegalStateException(ex);
+        }
+
+        return units;
+    }
+
+    /**
+     * Create a unit uploading an archive of packed files to the root of the version
+     *
+     * @param archive The archive holding the packed files
+     * @param packedPaths The '/' separated paths of the packed files relative to the base directory
+     * @return The upload unit of the archive
+     */
+    public static UploadUnit createPackUnit(File archive, List<String> packedPaths) {
+        UploadUnit unit = new UploadUnit("");
+        unit.getFileNames().add(archive.getName());
+        unit.sourceDir = archive.getParentFile();
+        unit.packedPaths = packedPaths;
+
+        return unit;
+    }
+
+    /**
+     * Upload the given units to a component version concurrently
+     *
+     * @param base The base directory of the files to upload
+     * @param component The component to upload the files to
+     * @param version The version of the component to upload the files to
+     * @param units The units of files to upload
+     * @return The report of the transfers
+     * @throws AbortException
+     */
+    public TransferReport uploadUnits(File base, String component, String version, List<UploadUnit> units)
+    throws AbortException {
+        start(base, component, version);
+
+        try {
+            for (UploadUnit unit : units) {
+                submit(unit);
+            }
+
+            return finish();
+        }
+        finally {
+            close();
+        }
+    }
+
+    /**
+     * Start uploading to a component version. Units are then passed to submit as
+     * they are created, and the upload is completed with finish. The caller must
+     * call close once done, whether or not the upload succeeded.
+     *
+     * @param base The base directory of the files to upload
+     * @param component The component to upload the files to
+     * @param version The version of the component to upload the files to
+     */
+    public void start(File base, String component, String version) {
+        this.base = base;
+        this.component = component;
+        this.version = version;
+
+        int threads = maxConnections;
+        executor = Executors.newFixedThreadPool(threads);
+        completionService = new ExecutorCompletionService<UploadUnit>(executor);
+        maxPending = threads * PENDING_UNITS_PER_CONNECTION;
+        submitted = 0;
+        completed = 0;
+        fileCount = 0;
+
+        listener.getLogger().println("Uploading work units over up to " + threads + " connections");
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Queue a unit for upload, waiting while too many units are queued already
+     * so that the units of a large file set are never all held at once
+     *
+     * @param unit The unit to upload
+     * @throws AbortException if a unit failed to upload
+     */
+    public void submit(final UploadUnit unit) throws AbortException {
+        try {
+            Future<UploadUnit> done;
+            while ((done = completionService.poll()) != null) {
+                collect(done);
+            }
+            while (submitted - completed >= maxPending) {
+                collect(completionService.take());
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AbortException("Interrupted while uploading files");
+        }
+
+        completionService.submit(new Callable<UploadUnit>() {
+            @Override
+            public UploadUnit call() throws Exception {
+                uploadUnitWithRetry(base, component, version, unit);
+                if (journal != null) {
+                    journal.confirm(base, unit.getSourcePaths());
+                }
+                return unit;
+            }
+        });
+        submitted++;
+        fileCount += unit.getSourcePaths().size();
+    }
+
+    /**
+     * Wait for every submitted unit to land
+     *
+     * @return The report of the transfers
+     * @throws AbortException if a unit failed to upload
+     */
+    public TransferReport finish() throws AbortException {
+        try {
+            while (completed < submitted) {
+                collect(completionService.take());
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AbortException("Interrupted while uploading files");
+        }
+
+        listener.getLogger().println("Uploaded " + completed + " work units");
+
+        TransferReport report = stats.createReport(component, version, fileCount, System.currentTimeMillis() - startTime);
+        report.print(listener.getLogger());
+
+        return report;
+    }
+
+    /**
+     * @return The number of units submitted since the upload started
+     */
+    public int getSubmittedCount() {
+        return submitted;
+    }
+
+    /**
+     * Stop the upload threads, cancelling any unit still queued
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void collect(Future<UploadUnit> done) throws AbortException, InterruptedException {
+        try {
+            done.get();
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            throw new AbortException("Failed to upload files: " + cause.getMessage());
+        }
+
+        completed++;
+        if (completed % PROGRESS_INTERVAL == 0) {
+            listener.getLogger().println("Uploaded " + completed + " of " + submitted + " work units queued so far");
+        }
+    }
+
+    /**
+     * Upload a unit, sending the whole unit again when an attempt fails. A failed
+     * attempt may have stored some of the unit's files already. Sending them again
+     * is safe because the server stores each file at its path in the version, so a
+     * repeated file replaces the earlier copy with the same content instead of
+     * adding a second one.
+     */
+    private void uploadUnitWithRetry(File base, String component, String version, UploadUnit unit) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                uploadUnit(base, component, version, unit);
+                return;
+            }
+            catch (InterruptedException ex) {
+                throw ex;
+            }
+            catch (Exception ex) {
+                if (attempt >= UNIT_ATTEMPTS) {
+                    throw ex;
+                }
+
+                stats.recordRetry();
+                long delay = retryDelay << (attempt - 1);
+                listener.getLogger().println("[Warning] Failed to upload work unit in '" + unit.getOffset() + "', retrying in "
+                        + (delay / 1000) + " seconds: " + ex.getMessage());
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Upload the files of a unit with a single REST call over a pooled connection
+     */
+    void uploadUnit(File base, String component, String version, UploadUnit unit) throws Exception {
+        DefaultHttpClient client = clientPool.borrow();
+
+        try {
+            UploadInterceptor interceptor = getInterceptor(client);
+            interceptor.setLabel(getLabel(unit));
+
+            VersionClient verClient = new VersionClient(ucdUrl, client);
+            File unitBase = unit.getSourceDir();
+            if (unitBase == null) {
+                unitBase = unit.getOffset().isEmpty() ? base : new File(base, unit.getOffset());
+            }
+            String[] includes = unit.getFileNames().toArray(new String[unit.getFileNames().size()]);
+
+            verClient.addVersionFiles(component,
+                                      version,
+                                      unitBase,
+                                      unit.getOffset(),
+                                      includes,
+                                      new String[0],
+                                      true,
+                                      false);
+        }
+        finally {
+            clientPool.release(client);
+        }
+    }
+
+    /**
+     * Get the interceptor of a pooled client, installing it on first use
+     *
+     * @param client The client borrowed from the pool
+     * @return The interceptor of the client
+     */
+    private UploadInterceptor getInterceptor(DefaultHttpClient client) {
+        UploadInterceptor interceptor = interceptors.get(client);
+
+        if (interceptor == null) {
+            interceptor = new UploadInterceptor(stats);
+            interceptor.setLimiter(limiter);
+            // run before the standard interceptors so they see the transformed entity
+            client.addRequestInterceptor(interceptor, 0);
+            client.addResponseInterceptor(interceptor);
+            interceptors.put(client, interceptor);
+        }
+
+        return interceptor;
+    }
+
+    private static String getLabel(UploadUnit unit) {
+        List<String> fileNames = unit.getFileNames();
+
+        if (unit.getPackedPaths() != null) {
+            return fileNames.get(0) + " (" + unit.getPackedPaths().size() + " packed files)";
+        }
+        if (fileNames.size() == 1) {
+            return unit.getRelativePaths().get(0);
+        }
+
+        return (unit.getOffset().isEmpty() ? "." : unit.getOffset()) + " (" + fileNames.size() + " files)";
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+
+/**
+ * This class intercepts the requests sent by an upload client, so that the
+ * bytes of the version files can be measured and held to a bandwidth limit as
+ * they stream out to the UCD server. One interceptor is installed on each pooled client and
+ * configured by the worker that currently owns the client. The interceptor also
+ * receives the response, to time each transfer from request to response.
+ *
+ */
+public class UploadInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+    private volatile String label;
+    private volatile BandwidthLimiter limiter;
+    private TransferStats stats;
+
+    /**
+     * @param stats The collector of the measurements of each transfer
+     */
+    public UploadInterceptor(TransferStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Hold the bytes sent over the connection to a bandwidth limit
+     *
+     * @param limiter The shared limiter, or null to send at full speed
+     */
+    public void setLimiter(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Set the description of the files sent for the current work unit
+     *
+     * @param label The description of the files, or null to describe transfers by their request
+     */
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+
+        HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+        HttpEntity entity = entityRequest.getEntity();
+
+        if (entity == null || entity instanceof TransferEntity) {
+            return;
+        }
+
+        String transferLabel = label != null ? label : request.getRequestLine().getUri();
+        entityRequest.setEntity(new TransferEntity(entity, transferLabel));
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+        Object request = context.getAttribute(HttpCoreContext.HTTP_REQUEST);
+
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+
+        if (entity instanceof TransferEntity) {
+            TransferEntity transfer = (TransferEntity) entity;
+            long millis = (System.nanoTime() - transfer.startTime) / 1000000L;
+            stats.recordTransfer(transfer.label, transfer.sentBytes, millis);
+        }
+    }
+
+    /**
+     * Entity wrapper counting the bytes written
+     */
+    private class TransferEntity extends HttpEntityWrapper {
+        private String label;
+        private long startTime = System.nanoTime();
+        private volatile long sentBytes = 0;
+
+        public TransferEntity(HttpEntity wrapped, String label) {
+            super(wrapped);
+            this.label = label;
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            BandwidthLimiter currentLimiter = limiter;
+            OutputStream target = currentLimiter != null ? currentLimiter.wrap(outstream, stats) : outstream;
+            CountingOutputStream wire = new CountingOutputStream(target);
+
+            wrappedEntity.writeTo(wire);
+            wire.flush();
+            sentBytes = wire.getByteCount();
+            stats.addBytes(sentBytes);
+        }
+    }
+}
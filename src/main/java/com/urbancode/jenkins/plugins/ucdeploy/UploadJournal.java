@@ -0,0 +1,200 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class provides a checkpoint journal of the files the UCD server has
+ * confirmed for a component version. Each confirmed work unit is appended to
+ * the journal as soon as it lands, so an interrupted upload can be resumed into
+ * the same version by uploading only the files that are missing.
+ *
+ */
+public class UploadJournal {
+    private static final String ENCODING = "UTF-8";
+    private static final String VERSION_KEY = "version";
+
+    private File file;
+    private String versionId;
+    private String componentName;
+    private String versionName;
+    private Map<String, String> confirmed = new HashMap<String, String>();
+    private BufferedWriter writer;
+
+    private UploadJournal(File file, String versionId, String componentName, String versionName) {
+        this.file = file;
+        this.versionId = versionId;
+        this.componentName = componentName;
+        this.versionName = versionName;
+    }
+
+    public String getVersionId() {
+        return versionId;
+    }
+
+    public String getComponentName() {
+        return componentName;
+    }
+
+    public String getVersionName() {
+        return versionName;
+    }
+
+    public int getConfirmedCount() {
+        return confirmed.size();
+    }
+
+    /**
+     * Get the journal file of a component
+     *
+     * @param workspace The workspace of the build
+     * @param component The name of the component
+     * @return The journal file
+     */
+    public static File getJournalFile(File workspace, String component) {
+        return new File(UploadHelper.getStateDir(workspace), UploadHelper.toFileName(component) + ".journal");
+    }
+
+    /**
+     * Start a new journal for a version, replacing any previous journal
+     *
+     * @param file The journal file
+     * @param versionId The UUID of the version being uploaded
+     * @param componentName The name of the component of the version
+     * @param versionName The name of the version being uploaded
+     * @return The open journal
+     * @throws IOException
+     */
+    public static UploadJournal create(File file, String versionId, String componentName, String versionName)
+    throws IOException {
+        File dir = file.getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir.getAbsolutePath());
+        }
+
+        UploadJournal journal = new UploadJournal(file, versionId, componentName, versionName);
+        journal.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, false), ENCODING));
+        journal.writer.write(VERSION_KEY + "\t" + versionId + "\t" + componentName + "\t" + versionName);
+        journal.writer.newLine();
+        journal.writer.flush();
+
+        return journal;
+    }
+
+    /**
+     * Load an existing journal and open it to record further confirmed files
+     *
+     * @param file The journal file
+     * @return The open journal, or null if there is no usable journal
+     * @throws IOException
+     */
+    public static UploadJournal resume(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        UploadJournal journal = null;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+
+        try {
+            String header = reader.readLine();
+            String[] headerFields = header == null ? new String[0] : header.split("\t", 4);
+
+            // journals written before the component was recorded are not usable
+            if (headerFields.length != 4 || !headerFields[0].equals(VERSION_KEY)) {
+                return null;
+            }
+
+            journal = new UploadJournal(file, headerFields[1], headerFields[2], headerFields[3]);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int delim = line.indexOf('\t');
+
+                // a partially written last line is ignored, its unit is uploaded again
+                if (delim > 0) {
+                    journal.confirmed.put(line.substring(delim + 1), line.substring(0, delim));
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        journal.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), ENCODING));
+
+        return journal;
+    }
+
+    /**
+     * Check whether a file was confirmed by the server and has not changed since
+     *
+     * @param base The base directory of the files
+     * @param relativePath The '/' separated path of the file relative to the base directory
+     * @return true if the file does not need to be uploaded again
+     */
+    public boolean isConfirmed(File base, String relativePath) {
+        String metadata = confirmed.get(relativePath);
+        return metadata != null && metadata.equals(getMetadata(new File(base, relativePath)));
+    }
+
+    /**
+     * Record files confirmed by the server, flushing them to disk immediately
+     *
+     * @param base The base directory of the files
+     * @param relativePaths The '/' separated paths of the files relative to the base directory
+     * @throws IOException
+     */
+    public synchronized void confirm(File base, List<String> relativePaths) throws IOException {
+        for (String path : relativePaths) {
+            String metadata = getMetadata(new File(base, path));
+            confirmed.put(path, metadata);
+            writer.write(metadata + "\t" + path);
+            writer.newLine();
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Close the journal, keeping it on disk for a later resume
+     */
+    public synchronized void close() {
+        try {
+            writer.close();
+        }
+        catch (IOException ex) {
+            // the journal is only a hint, nothing to recover
+        }
+    }
+
+    /**
+     * Close and remove the journal once every file has been uploaded, or once
+     * the version it describes can no longer be resumed
+     */
+    public void delete() {
+        close();
+        file.delete();
+    }
+
+    private static String getMetadata(File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import hudson.model.Run;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jenkins.model.RunAction2;
+
+/**
+ * This class keeps the transfer reports of the component versions pushed by a
+ * build, and shows them on a summary page of the build
+ *
+ */
+public class UploadReportAction implements RunAction2 {
+    private List<TransferReport> reports = new ArrayList<TransferReport>();
+    private transient Run<?, ?> run;
+
+    public UploadReportAction(List<TransferReport> reports) {
+        this.reports.addAll(reports);
+    }
+
+    public List<TransferReport> getReports() {
+        return reports;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    /**
+     * Add the reports of another push step of the same build
+     *
+     * @param moreReports The reports to add
+     */
+    public void addReports(List<TransferReport> moreReports) {
+        reports.addAll(moreReports);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "UCD Upload Report";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "ucdUploadReport";
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+    }
+}
@@ -10,21 +10,24 @@ package com.urbancode.jenkins.plugins.ucdeploy;
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.model.TaskListener;
-import hudson.slaves.EnvironmentVariablesNodeProperty;
-import hudson.slaves.NodeProperty;
-import hudson.slaves.NodePropertyDescriptor;
-import hudson.util.DescribableList;
-import jenkins.model.Jenkins;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import javax.ws.rs.core.UriBuilder;
+
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
@@ -35,9 +38,11 @@ import com.urbancode.jenkins.plugins.ucdeploy.ComponentHelper.CreateComponentBlo
 import com.urbancode.jenkins.plugins.ucdeploy.DeliveryHelper.DeliveryBlock;
 import com.urbancode.jenkins.plugins.ucdeploy.DeliveryHelper.Pull;
 import com.urbancode.jenkins.plugins.ucdeploy.DeliveryHelper.Push;
+import com.urbancode.jenkins.plugins.ucdeploy.UCDeployPublisher.UserBlock;
+import com.urbancode.jenkins.plugins.ucdeploy.UploadHelper.UnitSplitter;
+import com.urbancode.jenkins.plugins.ucdeploy.UploadHelper.UploadUnit;
 import com.urbancode.ud.client.ApplicationClient;
 import com.urbancode.ud.client.ComponentClient;
-import com.urbancode.ud.client.PropertyClient;
 import com.urbancode.ud.client.VersionClient;
 
 /**
@@ -50,20 +55,86 @@ import com.urbancode.ud.client.VersionClient;
 public class VersionHelper {
     private ApplicationClient appClient;
     private ComponentClient compClient;
-    private PropertyClient propClient;
     private VersionClient verClient;
     private TaskListener listener;
     private EnvVars envVars;
+    private URI ucdUrl;
+    private DefaultHttpClient httpClient;
+    private UCDeploySite udSite;
+    private UserBlock altUser;
+    private File workspace;
+    private HashCache hashCache;
+    private ClientPool clientPool;
+    private List<TransferReport> transferReports = new ArrayList<TransferReport>();
+    private Map<String, String> exportedVars = new LinkedHashMap<String, String>();
 
     public VersionHelper(URI ucdUrl, DefaultHttpClient httpClient, TaskListener listener, EnvVars envVars) {
         appClient = new ApplicationClient(ucdUrl, httpClient);
         compClient = new ComponentClient(ucdUrl, httpClient);
-        propClient = new PropertyClient(ucdUrl, httpClient);
         verClient = new VersionClient(ucdUrl, httpClient);
+        this.ucdUrl = ucdUrl;
+        this.httpClient = httpClient;
         this.listener = listener;
         this.envVars = envVars;
     }
 
+    /**
+     * Constructor used when the site is available to open additional connections
+     * for concurrent uploads, and the workspace is available to keep upload state
+     *
+     * @param udSite The UCD site to connect to
+     * @param altUser The alternative user to run as, or null to use the site user
+     * @param httpClient The client used for all non concurrent requests
+     * @param workspace The workspace of the build
+     * @param hashCache The cache of file hashes kept in the workspace, or null to hash every file
+     * @param listener The build listener
+     * @param envVars The build environment
+     * @throws AbortException
+     */
+    public VersionHelper(
+            UCDeploySite udSite,
+            UserBlock altUser,
+            DefaultHttpClient httpClient,
+            File workspace,
+            HashCache hashCache,
+            TaskListener listener,
+            EnvVars envVars)
+    throws AbortException {
+        this(udSite.getUri(), httpClient, listener, envVars);
+        this.udSite = udSite;
+        this.altUser = altUser;
+        this.workspace = workspace;
+        this.hashCache = hashCache;
+    }
+
+    /**
+     * Upload over a pool of clients shared with the other helpers of a batch,
+     * instead of opening a pool for each pushed version
+     *
+     * @param clientPool The shared pool, which the caller shuts down
+     */
+    public void setClientPool(ClientPool clientPool) {
+        this.clientPool = clientPool;
+    }
+
+    /**
+     * Get the reports of the file uploads made by this helper
+     *
+     * @return The list of transfer reports, one for each pushed version
+     */
+    public List<TransferReport> getTransferReports() {
+        return transferReports;
+    }
+
+    /**
+     * Get the environment variables set by this helper, to add to the build
+     *
+     * @return The map of variable names to values
+     */
+    public Map<String, String> getExportedVars() {
+        return exportedVars;
+    }
+
     public static class VersionBlock implements Serializable {
         private String componentName;
         private String componentTag;
@@ -124,7 +195,8 @@ public class VersionHelper {
      *
      */
     public void createVersion(VersionBlock versionBlock, String linkName, String linkUrl) throws AbortException {
-        ComponentHelper componentHelper = new ComponentHelper(appClient, compClient, listener, envVars);
+        ComponentHelper componentHelper = new ComponentHelper(ucdUrl, appClient, compClient, listener, envVars);
+        componentHelper.setConnections(httpClient, udSite, altUser);
         String componentName = envVars.expand(versionBlock.getComponentName());
         String componentTag = envVars.expand(versionBlock.getComponentTag());
 
@@ -132,16 +204,25 @@ public class VersionHelper {
             throw new AbortException("Component Name is a required property.");
         }
 
-        // create component
-        if (versionBlock.createComponentChecked()) {
-            componentHelper.createComponent(componentName,
-                                            versionBlock.getCreateComponent(),
-                                            versionBlock.getDelivery());
+        // reconcile component with its settings, only sending what changed
+        if (versionBlock.createComponentChecked() && versionBlock.getCreateComponent().getComponentReconcile()) {
+            componentHelper.reconcileComponent(componentName,
+                                               versionBlock.getCreateComponent(),
+                                               versionBlock.getDelivery(),
+                                               componentTag);
         }
+        else {
+            // create component
+            if (versionBlock.createComponentChecked()) {
+                componentHelper.createComponent(componentName,
+                                                versionBlock.getCreateComponent(),
+                                                versionBlock.getDelivery());
+            }
 
-        // tag component
-        if (componentTag != null && !componentTag.isEmpty()) {
-            componentHelper.addTag(componentName, componentTag);
+            // tag component
+            if (componentTag != null && !componentTag.isEmpty()) {
+                componentHelper.addTag(componentName, componentTag);
+            }
         }
 
         // create version
@@ -156,35 +237,106 @@ public class VersionHelper {
                                          version.length() + ")");
             }
 
-            UUID versionId;
-            try {
-                versionId = verClient.createVersion(componentName, version, envVars.expand(pushBlock.getPushDescription()));
-            }
-            catch (Exception ex) {
-                throw new AbortException("Failed to create component version: " + ex.getMessage());
+            long packThreshold = 0;
+            if (pushBlock.getPushPack() && workspace != null) {
+                packThreshold = readPackThreshold(envVars.expand(pushBlock.getPushPackThreshold()));
+                requireUnzipStep(componentName);
             }
-            listener.getLogger().println("Successfully created component version with UUID '" + versionId.toString() + "'");
 
-            try {
-                putEnvVar(componentName + "_VersionId", versionId.toString());
+            boolean resume = pushBlock.getPushResume() && workspace != null;
+            UploadJournal journal = null;
+            UUID versionId = null;
+
+            if (resume) {
+                journal = resumeJournal(componentName, version);
+                if (journal != null) {
+                    versionId = UUID.fromString(journal.getVersionId());
+                    listener.getLogger().println("Resuming the upload to existing component version with UUID '" + versionId +
+                                                 "', " + journal.getConfirmedCount() + " files were already confirmed");
+                }
             }
-            catch (Exception ex) {
-                listener.getLogger().println("[Warning] Failed to set version ID as environment variable.");
+
+            if (versionId == null) {
+                try {
+                    versionId = verClient.createVersion(componentName, version, envVars.expand(pushBlock.getPushDescription()));
+                }
+                catch (Exception ex) {
+                    throw new AbortException("Failed to create component version: " + ex.getMessage());
+                }
+                listener.getLogger().println("Successfully created component version with UUID '" + versionId.toString() + "'");
+
+                if (resume) {
+                    try {
+                        journal = UploadJournal.create(UploadJournal.getJournalFile(workspace, componentName),
+                                                       versionId.toString(),
+                                                       componentName,
+                                                       version);
+                    }
+                    catch (IOException ex) {
+                        listener.getLogger().println("[Warning] Failed to create the upload journal: " + ex.getMessage());
+                    }
+                }
             }
 
+            putEnvVar(componentName + "_VersionId", versionId.toString());
+
             // upload files
+            int concurrency = readConcurrency(envVars.expand(pushBlock.getPushConcurrency()));
+            boolean delta = pushBlock.getPushDelta() && workspace != null;
+            if (delta && !isIncrementalComponent(componentName)) {
+                listener.getLogger().println("[Warning] 'Upload Only Changed Files' only applies to components whose " +
+                                             "versions are incremental, uploading all files");
+                delta = false;
+            }
+            BandwidthLimiter limiter = getUploadLimiter(envVars.expand(pushBlock.getPushMaxUploadRate()));
             listener.getLogger().println("Uploading files to version '" + version + "' on component '" + componentName + "'");
-            uploadVersionFiles(envVars.expand(pushBlock.getBaseDir()),
-                               componentName,
-                               version,
-                               envVars.expand(pushBlock.getFileIncludePatterns()),
-                               envVars.expand(pushBlock.getFileExcludePatterns()));
+            if (udSite != null) {
+                try {
+                    uploadMatchedVersionFiles(envVars.expand(pushBlock.getBaseDir()),
+                                              componentName,
+                                              version,
+                                              versionId,
+                                              envVars.expand(pushBlock.getFileIncludePatterns()),
+                                              envVars.expand(pushBlock.getFileExcludePatterns()),
+                                              concurrency,
+                                              delta,
+                                              journal,
+                                              limiter,
+                                              packThreshold);
+                }
+                catch (AbortException ex) {
+                    if (journal != null) {
+                        // keep the confirmed files so the next build can resume into this version
+                        journal.close();
+                        listener.getLogger().println("The partially uploaded version was kept, run the build again to " +
+                                                     "resume the upload");
+                    }
+                    else {
+                        // only commit the version once every unit has landed
+                        deleteVersion(versionId);
+                    }
+                    throw ex;
+                }
+
+                if (journal != null) {
+                    journal.delete();
+                }
+            }
+            else {
+                uploadVersionFiles(envVars.expand(pushBlock.getBaseDir()),
+                                   componentName,
+                                   version,
+                                   envVars.expand(pushBlock.getFileIncludePatterns()),
+                                   envVars.expand(pushBlock.getFileExcludePatterns()),
+                                   limiter);
+            }
             listener.getLogger().println("Successfully uploaded files");
 
             // set version properties
             listener.getLogger().println("Setting properties for version '" + version + "' on component '" + componentName + "'");
             setComponentVersionProperties(componentName,
                                           version,
+                                          versionId,
                                           DeliveryBlock.mapProperties(envVars.expand(pushBlock.getPushProperties())));
 
             // add link
@@ -239,6 +391,35 @@ public class VersionHelper {
         String includePatterns,
         String excludePatterns)
     throws AbortException {
+        uploadVersionFiles(baseDir, component, version, includePatterns, excludePatterns, null);
+    }
+
+    /**
+     * Upload files to component version, held to a bandwidth limit
+     *
+     * @param baseDir The base directory of the files to upload
+     * @param component The component to upload the files to
+     * @param version The version of the component to upload the files to
+     * @param includePatterns The patterns to include in the upload
+     * @param excludePatterns The patterns to exclude in the upload
+     * @param limiter The bandwidth limiter shared with other uploads to the server, or null to upload at full speed
+     * @throws AbortException
+     */
+    public void uploadVersionFiles(
+        String baseDir,
+        String component,
+        String version,
+        String includePatterns,
+        String excludePatterns,
+        BandwidthLimiter limiter)
+    throws AbortException {
+        if (udSite != null) {
+            // match and upload in work units over a client of this upload, which is measured and limited
+            uploadMatchedVersionFiles(baseDir, component, version, null, includePatterns, excludePatterns, 1, false,
+                                      null, limiter, 0);
+            return;
+        }
+
         String[] includes = splitFiles(includePatterns);
         String[] excludes = splitFiles(excludePatterns);
 
@@ -248,19 +429,13 @@ public class VersionHelper {
             throw new AbortException("Base artifact directory " + base.getAbsolutePath() + " does not exist");
         }
         
-        if(base.list().length==0) {
+        if(isEmptyDirectory(base)) {
         	throw new AbortException("Base artifact directory " + base.getAbsolutePath() + " does not contain any files to upload. Please place files.");
         }
 
+        // without the site there is no private client to measure or limit the upload on
         try {
-            verClient.addVersionFiles(component,
-                                      version,
-                                      base,
-                                      "",
-                                      includes,
-                                      excludes,
-                                      true,
-                                      true);
+            verClient.addVersionFiles(component, version, base, "", includes, excludes, true, true);
         }
         catch (Exception ex) {
             throw new AbortException("Failed to upload files: " + ex.getMessage());
@@ -268,33 +443,671 @@ public class VersionHelper {
     }
 
     /**
-     * Set environment variable.
+     * Upload the locally matched files to a component version in work units over
+     * one or more connections, optionally skipping files that have not changed
+     * since the previous version of the component. Matched files are grouped into
+     * units and uploaded while the base directory is still being walked, so memory
+     * stays flat however many files are pushed. Only an incremental upload holds
+     * every matched path, as it records the hash of each file for the next push.
+     *
+     * @param baseDir The base directory of the files to upload
+     * @param component The component to upload the files to
+     * @param version The version of the component to upload the files to
+     * @param versionId The UUID of the version to upload the files to
+     * @param includePatterns The patterns to include in the upload
+     * @param excludePatterns The patterns to exclude in the upload
+     * @param concurrency The number of connections to upload over
+     * @param delta Whether to upload only the files changed since the previous version
+     * @param journal The journal of files already confirmed by the server, or null to upload every file
+     * @param limiter The bandwidth limiter shared with other uploads to the server, or null to upload at full speed
+     * @param packThreshold The size in bytes below which files are packed into one archive, or 0 to upload every file
+     * @throws AbortException
+     */
+    public void uploadMatchedVersionFiles(
+        String baseDir,
+        String component,
+        String version,
+        UUID versionId,
+        String includePatterns,
+        String excludePatterns,
+        int concurrency,
+        boolean delta,
+        UploadJournal journal,
+        BandwidthLimiter limiter,
+        long packThreshold)
+    throws AbortException {
+        String[] includes = splitFiles(includePatterns);
+        String[] excludes = splitFiles(excludePatterns);
+
+        File base = new File(baseDir);
+
+        if (!base.exists()) {
+            throw new AbortException("Base artifact directory " + base.getAbsolutePath() + " does not exist");
+        }
+
+        if (isEmptyDirectory(base)) {
+            throw new AbortException("Base artifact directory " + base.getAbsolutePath() + " does not contain any files to upload. Please place files.");
+        }
+
+        FileMatcher matcher = new FileMatcher(includes, excludes);
+        ClientPool ownPool = null;
+        if (clientPool == null) {
+            ownPool = new ClientPool(udSite, altUser, concurrency);
+        }
+        final UploadHelper uploadHelper = new UploadHelper(ucdUrl,
+                                                           ownPool != null ? ownPool : clientPool,
+                                                           concurrency,
+                                                           listener);
+        uploadHelper.setJournal(journal);
+        uploadHelper.setLimiter(limiter);
+        UnitSplitter splitter = new UnitSplitter(UploadHelper.FILES_PER_UNIT) {
+            @Override
+            protected void unitReady(UploadUnit unit) throws AbortException {
+                uploadHelper.submit(unit);
+            }
+        };
+        UploadSelector selector = new UploadSelector(base, journal, packThreshold, splitter);
+        Map<String, String> hashes = null;
+        File packDir = null;
+
+        uploadHelper.start(base, component, version);
+
+        try {
+            if (delta) {
+                final List<String> relativePaths = new ArrayList<String>();
+
+                walk(matcher, base, new FileMatcher.MatchVisitor() {
+                    @Override
+                    public void visitFile(String relativePath, BasicFileAttributes attributes) {
+                        relativePaths.add(relativePath);
+                    }
+
+                    @Override
+                    public void leaveDirectory(String relativeDir) {
+                    }
+                });
+
+                try {
+                    hashes = new FileHasher(hashCache).hashFiles(base, relativePaths);
+                }
+                catch (IOException ex) {
+                    throw new AbortException("Failed to hash files for the incremental upload: " + ex.getMessage());
+                }
+
+                if (hashCache != null) {
+                    listener.getLogger().println("Reused " + hashCache.getHits() + " cached file hashes, hashed " +
+                                                 hashCache.getMisses() + " new or modified files");
+                }
+
+                List<String> uploadPaths = relativePaths;
+                VersionManifest previous = loadPreviousManifest(component, versionId);
+                if (previous != null) {
+                    uploadPaths = previous.getChangedFiles(hashes);
+                    listener.getLogger().println(uploadPaths.size() + " of " + relativePaths.size() + " files changed " +
+                                                 "since the previous version with UUID '" + previous.getVersionId() + "'");
+                }
+
+                for (String path : uploadPaths) {
+                    selector.addFile(path, new File(base, path).length());
+                }
+                listener.getLogger().println("Matched " + relativePaths.size() + " files");
+            }
+            else {
+                walk(matcher, base, selector);
+                listener.getLogger().println("Matched " + selector.getMatchedCount() + " files");
+            }
+
+            splitter.flush();
+
+            if (selector.getConfirmedCount() > 0) {
+                listener.getLogger().println(selector.getConfirmedCount() + " files were already uploaded");
+            }
+
+            List<String> smallPaths = selector.getSmallPaths();
+            if (smallPaths.size() >= FilePacker.MIN_PACK_FILES) {
+                if (selector.hasPackFileName()) {
+                    throw new AbortException("The base artifact directory contains a file named " + FilePacker.PACK_FILE_NAME +
+                                             ", which the archive of packed files would replace. Rename the file or " +
+                                             "uncheck Pack Small Files.");
+                }
+                listener.getLogger().println("[Warning] Pack Small Files is checked, " + smallPaths.size() + " files are " +
+                                             "stored in the version inside " + FilePacker.PACK_FILE_NAME + " instead " +
+                                             "of as separate files");
+                packDir = FilePacker.getPackDir(workspace, component);
+                File archive = new File(packDir, FilePacker.PACK_FILE_NAME);
+
+                try {
+                    FilePacker.pack(base, smallPaths, archive);
+                }
+                catch (IOException ex) {
+                    throw new AbortException("Failed to pack small files: " + ex.getMessage());
+                }
+
+                listener.getLogger().println(String.format("Packed %d files smaller than %d KB into %s (%.1f MB)",
+                        smallPaths.size(), packThreshold / 1024, archive.getName(), archive.length() / (1024.0 * 1024.0)));
+                uploadHelper.submit(UploadHelper.createPackUnit(archive, smallPaths));
+
+                // mark the version, so that processes and users can tell its small files must be extracted
+                Map<String, String> packProperties = new LinkedHashMap<String, String>();
+                packProperties.put(FilePacker.PACKED_PROPERTY, FilePacker.PACK_FILE_NAME);
+                setComponentVersionProperties(component, version, versionId, packProperties);
+            }
+            else {
+                // too few small files to be worth an archive
+                for (String path : smallPaths) {
+                    splitter.addFile(path);
+                }
+                splitter.flush();
+            }
+
+            if (uploadHelper.getSubmittedCount() == 0) {
+                listener.getLogger().println(selector.getMatchedCount() == 0 && !delta
+                        ? "[Warning] No files matched the include and exclude patterns"
+                        : "No files left to upload");
+            }
+            else {
+                transferReports.add(uploadHelper.finish());
+            }
+        }
+        finally {
+            uploadHelper.close();
+            if (ownPool != null) {
+                ownPool.shutdown();
+            }
+
+            if (packDir != null) {
+                FilePacker.delete(packDir);
+            }
+        }
+
+        if (delta) {
+            try {
+                new VersionManifest(versionId.toString(), hashes).save(VersionManifest.getManifestFile(workspace, component));
+            }
+            catch (IOException ex) {
+                listener.getLogger().println("[Warning] Failed to record the manifest of the pushed files: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Walk the base directory, passing the matched files to a visitor
+     */
+    private void walk(FileMatcher matcher, File base, FileMatcher.MatchVisitor visitor) throws AbortException {
+        try {
+            matcher.walk(base, visitor);
+        }
+        catch (AbortException ex) {
+            throw ex;
+        }
+        catch (IOException ex) {
+            throw new AbortException("Failed to scan base artifact directory " + base.getAbsolutePath() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Passes the files to upload on to the unit splitter, leaving out the files
+     * already confirmed in the journal and holding back the small files to pack
+     */
+    private static class UploadSelector implements FileMatcher.MatchVisitor {
+        private File base;
+        private UploadJournal journal;
+        private long packThreshold;
+        private UnitSplitter splitter;
+        private int matchedCount = 0;
+        private int confirmedCount = 0;
+        private boolean packFileName = false;
+        private List<String> smallPaths = new ArrayList<String>();
+
+        public UploadSelector(File base, UploadJournal journal, long packThreshold, UnitSplitter splitter) {
+            this.base = base;
+            this.journal = journal;
+            this.packThreshold = packThreshold;
+            this.splitter = splitter;
+        }
+
+        @Override
+        public void visitFile(String relativePath, BasicFileAttributes attributes) throws IOException {
+            addFile(relativePath, attributes.size());
+        }
+
+        @Override
+        public void leaveDirectory(String relativeDir) throws IOException {
+            splitter.endDirectory(relativeDir);
+        }
+
+        public void addFile(String relativePath, long size) throws AbortException {
+            matchedCount++;
+
+            if (relativePath.equals(FilePacker.PACK_FILE_NAME)) {
+                packFileName = true;
+            }
+
+            if (journal != null && journal.isConfirmed(base, relativePath)) {
+                confirmedCount++;
+            }
+            else if (packThreshold > 0 && size < packThreshold) {
+                smallPaths.add(relativePath);
+            }
+            else {
+                splitter.addFile(relativePath);
+            }
+        }
+
+        public int getMatchedCount() {
+            return matchedCount;
+        }
+
+        public int getConfirmedCount() {
+            return confirmedCount;
+        }
+
+        public List<String> getSmallPaths() {
+            return smallPaths;
+        }
+
+        public boolean hasPackFileName() {
+            return packFileName;
+        }
+    }
+
+    /**
+     * Load the manifest recorded by the previous push of a component, provided it
+     * still describes the latest version of the component on the UCD server
+     *
+     * @param component The name of the component
+     * @param versionId The UUID of the version being pushed, which is ignored
+     * @return The manifest of the previous version, or null if all files must be uploaded
+     */
+    private VersionManifest loadPreviousManifest(String component, UUID versionId) {
+        VersionManifest manifest;
+
+        try {
+            manifest = VersionManifest.load(VersionManifest.getManifestFile(workspace, component));
+        }
+        catch (IOException ex) {
+            listener.getLogger().println("[Warning] Failed to read the manifest of the previous push: " + ex.getMessage());
+            manifest = null;
+        }
+
+        if (manifest == null) {
+            listener.getLogger().println("No manifest of a previous push was found, uploading all files");
+            return null;
+        }
+
+        String latestVersionId;
+        try {
+            latestVersionId = getLatestVersionId(component, versionId);
+        }
+        catch (IOException ex) {
+            listener.getLogger().println("[Warning] Failed to acquire the latest component version: " + ex.getMessage());
+            return null;
+        }
+        catch (JSONException ex) {
+            listener.getLogger().println("[Warning] Failed to process the JSON object of the component versions: " +
+                                         ex.getMessage());
+            return null;
+        }
+
+        if (!manifest.getVersionId().equals(latestVersionId)) {
+            listener.getLogger().println("The latest version of the component was not pushed from this workspace, " +
+                                         "uploading all files");
+            return null;
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Open the journal of an interrupted upload of the same version, so that the
+     * upload can re-attach to the version that was already created
+     *
+     * @param component The name of the component
+     * @param version The name of the version being pushed
+     * @return The open journal, or null if a new version must be created
+     */
+    private UploadJournal resumeJournal(String component, String version) {
+        UploadJournal journal;
+
+        try {
+            journal = UploadJournal.resume(UploadJournal.getJournalFile(workspace, component));
+        }
+        catch (IOException ex) {
+            listener.getLogger().println("[Warning] Failed to read the upload journal: " + ex.getMessage());
+            return null;
+        }
+
+        if (journal == null) {
+            return null;
+        }
+
+        String recordedVersionId = envVars.get(component.replaceAll(" ", "_") + "_VersionId");
+
+        if (!journal.getComponentName().equals(component)
+                || !journal.getVersionName().equals(version)
+                || (recordedVersionId != null && !recordedVersionId.equals(journal.getVersionId()))) {
+            listener.getLogger().println("The upload journal belongs to a different version, creating a new version");
+            journal.delete();
+            return null;
+        }
+
+        if (!isResumableVersion(journal, component, version)) {
+            // the journal can never be resumed, so remove it instead of failing every later build
+            journal.delete();
+            return null;
+        }
+
+        return journal;
+    }
+
+    /**
+     * Check that the version recorded in a journal still exists on the UCD server
+     * as the same version of the same component
+     *
+     * @param journal The journal of the interrupted upload
+     * @param component The name of the component
+     * @param version The name of the version being pushed
+     * @return true if the upload can re-attach to the recorded version
+     */
+    private boolean isResumableVersion(UploadJournal journal, String component, String version) {
+        URI uri = UriBuilder.fromUri(ucdUrl).path("rest").path("deploy").path("version").path(journal.getVersionId())
+                .build();
+        JSONObject versionJson;
+
+        try {
+            versionJson = new JSONObject(RestHelper.executeGet(httpClient, uri));
+        }
+        catch (RestHelper.StatusException ex) {
+            if (ex.getStatusCode() == 404) {
+                listener.getLogger().println("The version in the upload journal no longer exists, creating a new version");
+            }
+            else {
+                listener.getLogger().println("[Warning] Failed to check the version in the upload journal, creating a " +
+                                             "new version: " + ex.getMessage());
+            }
+            return false;
+        }
+        catch (IOException ex) {
+            listener.getLogger().println("[Warning] Failed to check the version in the upload journal, creating a new " +
+                                         "version: " + ex.getMessage());
+            return false;
+        }
+        catch (JSONException ex) {
+            listener.getLogger().println("[Warning] Failed to process the JSON object of the journaled version, " +
+                                         "creating a new version: " + ex.getMessage());
+            return false;
+        }
+
+        JSONObject componentJson = versionJson.optJSONObject("component");
+        String serverComponent = componentJson != null ? componentJson.optString("name", "") : "";
+
+        if (!version.equals(versionJson.optString("name", ""))
+                || !component.equals(serverComponent)
+                || !versionJson.optBoolean("active", true)) {
+            listener.getLogger().println("The version in the upload journal no longer matches component '" + component +
+                                         "' version '" + version + "' on the server, creating a new version");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Check that a process of the component extracts zip archives, so that the
+     * packed small files are unzipped again when the version is deployed
+     *
+     * @param component The name of the component
+     * @throws AbortException If no process of the component has an unzip step
+     */
+    private void requireUnzipStep(String component) throws AbortException {
+        URI processesUri = UriBuilder.fromUri(ucdUrl).path("cli").path("component").path("componentProcesses")
+                .queryParam("component", component).build();
+
+        try {
+            JSONArray processes = new JSONArray(RestHelper.executeGet(httpClient, processesUri));
+
+            for (int i = 0; i < processes.length(); i++) {
+                String processName = processes.getJSONObject(i).getString("name");
+                URI processUri = UriBuilder.fromUri(ucdUrl).path("cli").path("componentProcess").path("info")
+                        .queryParam("component", component).queryParam("componentProcess", processName).build();
+
+                if (hasUnzipStep(new JSONObject(RestHelper.executeGet(httpClient, processUri)))) {
+                    return;
+                }
+            }
+        }
+        catch (IOException ex) {
+            throw new AbortException("Failed to acquire the processes of component '" + component + "': " + ex.getMessage());
+        }
+        catch (JSONException ex) {
+            throw new AbortException("Failed to process the JSON object of the component processes: " + ex.getMessage());
+        }
+
+        throw new AbortException("Pack Small Files is checked, but no process of component '" + component + "' has a " +
+                                 "step that unzips " + FilePacker.PACK_FILE_NAME + ". Add an Unzip step after the " +
+                                 "download step, or uncheck Pack Small Files.");
+    }
+
+    /**
+     * Search the steps of a process for a step that extracts zip archives
+     */
+    private static boolean hasUnzipStep(Object json) {
+        if (json instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject)json;
+            String command = jsonObject.optString("commandName", "").toLowerCase();
+
+            if (command.contains("unzip") || command.contains("extract")) {
+                return true;
+            }
+
+            Iterator<?> keys = jsonObject.keys();
+            while (keys.hasNext()) {
+                if (hasUnzipStep(jsonObject.opt(keys.next().toString()))) {
+                    return true;
+                }
+            }
+        }
+        else if (json instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray)json;
+
+            for (int i = 0; i < jsonArray.length(); i++) {
+                if (hasUnzipStep(jsonArray.opt(i))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check whether the versions of a component are created as incremental
+     * versions, which are the only versions that may leave out unchanged files
+     *
+     * @param component The name of the component
+     * @return true if the default version type of the component is INCREMENTAL
+     */
+    private boolean isIncrementalComponent(String component) {
+        URI uri = UriBuilder.fromUri(ucdUrl).path("cli").path("component").path("info")
+                .queryParam("component", component).build();
+
+        try {
+            JSONObject componentJson = new JSONObject(RestHelper.executeGet(httpClient, uri));
+            return "INCREMENTAL".equalsIgnoreCase(componentJson.optString("defaultVersionType", ""));
+        }
+        catch (IOException ex) {
+            listener.getLogger().println("[Warning] Failed to acquire the version type of the component: " + ex.getMessage());
+        }
+        catch (JSONException ex) {
+            listener.getLogger().println("[Warning] Failed to process the JSON object of the component: " + ex.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * Acquire the UUID of the most recently created version of a component
+     *
+     * @param component The name of the component
+     * @param ignoredVersionId The UUID of a version to leave out, such as the one being pushed
+     * @return The UUID of the latest version, or null if there is none
+     * @throws IOException
+     * @throws JSONException
+     */
+    private String getLatestVersionId(String component, UUID ignoredVersionId) throws IOException, JSONException {
+        URI uri = UriBuilder.fromUri(ucdUrl).path("cli").path("component").path("versions")
+                .queryParam("component", component).build();
+        JSONArray versions = new JSONArray(RestHelper.executeGet(httpClient, uri));
+
+        String latestVersionId = null;
+        long latestCreated = Long.MIN_VALUE;
+
+        for (int i = 0; i < versions.length(); i++) {
+            JSONObject version = versions.getJSONObject(i);
+            String id = version.getString("id");
+            long created = version.optLong("created", 0L);
+
+            if (!id.equals(ignoredVersionId.toString()) && created >= latestCreated) {
+                latestVersionId = id;
+                latestCreated = created;
+            }
+        }
+
+        return latestVersionId;
+    }
+
+    /**
+     * Delete a component version that could not be fully populated
+     *
+     * @param versionId The UUID of the version to delete
+     */
+    private void deleteVersion(UUID versionId) {
+        listener.getLogger().println("Deleting incomplete component version with UUID '" + versionId + "'");
+        URI uri = UriBuilder.fromUri(ucdUrl).path("rest").path("deploy").path("version").path(versionId.toString()).build();
+
+        try {
+            RestHelper.executeDelete(httpClient, uri);
+        }
+        catch (IOException ex) {
+            listener.getLogger().println("[Warning] Failed to delete incomplete component version: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Parse the number of upload connections, defaulting to a single connection
+     *
+     * @param concurrency The configured number of connections
+     * @return The number of connections to upload over
+     * @throws AbortException
+     */
+    static int readConcurrency(String concurrency) throws AbortException {
+        if (concurrency == null || concurrency.trim().isEmpty()) {
+            return 1;
+        }
+
+        try {
+            int value = Integer.parseInt(concurrency.trim());
+            if (value < 1) {
+                throw new AbortException("Upload Connections must be at least 1 (Current value: " + value + ")");
+            }
+            return value;
+        }
+        catch (NumberFormatException ex) {
+            throw new AbortException("Upload Connections must be a number: '" + concurrency + "'");
+        }
+    }
+
+    /**
+     * Read the size below which files are packed into one archive
+     *
+     * @param threshold The size in KB
+     * @return The size in bytes
+     * @throws AbortException
+     */
+    private long readPackThreshold(String threshold) throws AbortException {
+        if (threshold == null || threshold.trim().isEmpty()) {
+            threshold = FilePacker.DEFAULT_THRESHOLD;
+        }
+
+        try {
+            long value = Long.parseLong(threshold.trim());
+            if (value < 1) {
+                throw new AbortException("Small File Size must be at least 1 KB (Current value: " + value + ")");
+            }
+            return value * 1024;
+        }
+        catch (NumberFormatException ex) {
+            throw new AbortException("Small File Size must be a number: '" + threshold + "'");
+        }
+    }
+
+    /**
+     * Get the bandwidth limiter for an upload. The site's limit is shared with every
+     * upload to the server from this node, and a limit set on the job holds this
+     * upload to a lower rate of its own under the site's limit.
+     *
+     * @param jobRate The limit in MB/s set on the job, or empty to use the site's limit only
+     * @return The limiter of the upload, or null if uploads are not limited
+     * @throws AbortException
+     */
+    private BandwidthLimiter getUploadLimiter(String jobRate) throws AbortException {
+        double siteMegabytesPerSecond = readUploadRate(udSite != null ? udSite.getMaxUploadRate() : null);
+        double jobMegabytesPerSecond = readUploadRate(jobRate);
+        BandwidthLimiter limiter = null;
+
+        if (siteMegabytesPerSecond > 0) {
+            limiter = BandwidthLimiter.forServer(ucdUrl.toString(), siteMegabytesPerSecond);
+        }
+        if (jobMegabytesPerSecond > 0) {
+            limiter = BandwidthLimiter.forUpload(limiter, jobMegabytesPerSecond);
+        }
+
+        if (limiter != null) {
+            listener.getLogger().println(String.format("Limiting upload bandwidth to %.2f MB/s",
+                    limiter.getBytesPerSecond() / (1024.0 * 1024.0)));
+        }
+
+        return limiter;
+    }
+
+    /**
+     * Read an upload bandwidth limit
+     *
+     * @param rate The limit in MB/s
+     * @return The limit, or 0 if the rate is empty or 0
+     * @throws AbortException
+     */
+    private double readUploadRate(String rate) throws AbortException {
+        if (rate == null || rate.trim().isEmpty()) {
+            return 0;
+        }
+
+        double megabytesPerSecond;
+        try {
+            megabytesPerSecond = Double.parseDouble(rate.trim());
+        }
+        catch (NumberFormatException ex) {
+            throw new AbortException("Upload Bandwidth Limit must be a number: '" + rate + "'");
+        }
+
+        if (megabytesPerSecond < 0) {
+            throw new AbortException("Upload Bandwidth Limit must not be negative (Current value: " + rate + ")");
+        }
+
+        return megabytesPerSecond;
+    }
+
+    /**
+     * Set environment variable. The variable is added to the environment of the
+     * build once the step returns to the controller.
      * @param key
      * @param value
-     * @throws IOException
      */
-    private void putEnvVar(String key, String value) throws IOException {
+    private void putEnvVar(String key, String value) {
         key = key.replaceAll(" ", "_");
         listener.getLogger().println("Setting environment variable " + key + ".");
-        Jenkins jenkins = Jenkins.getInstance();
-        DescribableList<NodeProperty<?>, NodePropertyDescriptor> globalNodeProperties =
-                jenkins.getGlobalNodeProperties();
-        List<EnvironmentVariablesNodeProperty> envVarsNodePropertyList =
-                globalNodeProperties.getAll(hudson.slaves.EnvironmentVariablesNodeProperty.class);
-
-        EnvironmentVariablesNodeProperty newEnvVarsNodeProperty = null;
-        EnvVars envVars = null;
-
-        if (envVarsNodePropertyList == null || envVarsNodePropertyList.isEmpty()) {
-           newEnvVarsNodeProperty = new hudson.slaves.EnvironmentVariablesNodeProperty();
-           globalNodeProperties.add(newEnvVarsNodeProperty);
-           envVars = newEnvVarsNodeProperty.getEnvVars();
-        } else {
-           envVars = envVarsNodePropertyList.get(0).getEnvVars();
-        }
-        envVars.put(key, value);
-        jenkins.save();
-     }
+        exportedVars.put(key, value);
+    }
 
     /**
      * Split a string of filenames by newline and remove empty/null entries
@@ -317,104 +1130,61 @@ public class VersionHelper {
     }
 
     /**
-     * Set properties on a component version, handling property definitions
+     * Check whether a directory has no entries, reading at most its first entry
+     *
+     * @param dir The directory to check
+     * @return true if the directory is empty
+     * @throws AbortException
+     */
+    private boolean isEmptyDirectory(File dir) throws AbortException {
+        try {
+            DirectoryStream<Path> entries = Files.newDirectoryStream(dir.toPath());
+
+            try {
+                return !entries.iterator().hasNext();
+            }
+            finally {
+                entries.close();
+            }
+        }
+        catch (IOException ex) {
+            throw new AbortException("Failed to read base artifact directory " + dir.getAbsolutePath() + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Set properties on a component version, handling property definitions. Missing
+     * definitions are created and the values are set in as few requests as possible.
      *
      * @param component The name of the component which contains the component version
      * @param version The name of the version on the component to set the properties for
+     * @param versionId The UUID of the version, or null if only the name is known
      * @param properties the map of properties to set on the component version
      * @throws AbortException
      */
     private void setComponentVersionProperties(
         String component,
         String version,
+        UUID versionId,
         Map<String,String> properties)
     throws AbortException {
         if (!properties.isEmpty()) {
-            JSONObject propSheetDef;
-            String propSheetDefId;
-            String propSheetDefPath;
-            JSONArray existingPropDefJsonArray;
+            PropertyHelper propertyHelper = new PropertyHelper(ucdUrl, httpClient, udSite, altUser, listener);
+            PropertyHelper.PropSheetDef propSheetDef = propertyHelper.getVersionPropSheetDef(component);
 
-            // acquire prop sheet definition and it's existing propDefs
-            try {
-                propSheetDef = compClient.getComponentVersionPropSheetDef(component);
-                propSheetDefId = (String) propSheetDef.get("id");
-                propSheetDefPath = (String) propSheetDef.get("path");
-                existingPropDefJsonArray = propClient.getPropSheetDefPropDefs(propSheetDefPath);
-            }
-            catch (IOException ex) {
-                throw new AbortException("An error occurred acquiring property sheets: " + ex.getMessage());
-            }
-            catch (JSONException e) {
-                throw new AbortException("An error occurred while processing the JSON object of the version property sheet: " +
-                                         e.getMessage());
-            }
-
-            // update existing properties
-            for (int i = 0; i < existingPropDefJsonArray.length(); i++) {
-                JSONObject propDef;
-                String propName;
-
-                try {
-                    propDef = existingPropDefJsonArray.getJSONObject(i);
-                    propName = propDef.getString("name");
-                }
-                catch (JSONException ex) {
-                    throw new AbortException("An error occurred while processing the JSON object of an existing property " +
-                                             "definition: " + ex.getMessage());
-                }
-
-                String propValue = properties.get(propName);
-
-                if (propValue != null) {
-                    try {
-                        listener.getLogger().println("Updating version property '" + propName + "' to '" + propValue + "'");
-                        verClient.setVersionProperty(version, component, propName, propValue, false);
-                        listener.getLogger().println("Successfully updated version property");
-                    }
-                    catch (IOException ex) {
-                        throw new AbortException("An error occurred while updating the property: " + ex.getMessage());
-                    }
+            // create new property definitions
+            List<String> missingPropNames = new ArrayList<String>();
+            for (String propName : properties.keySet()) {
+                if (!propSheetDef.getPropNames().contains(propName)) {
+                    missingPropNames.add(propName);
                 }
-
-                properties.remove(propName);
             }
-
-            // create new properties
-            if (!properties.isEmpty()) {
-                UUID propSheetDefUUID = UUID.fromString(propSheetDefId);
-
-                for (Map.Entry<String, String> property : properties.entrySet()) {
-                    String propName = property.getKey();
-                    String propDescription = "";
-                    String propLabel = "";
-                    Boolean required = false;
-                    String propType = "TEXT";
-                    String propValue = property.getValue();
-
-                    try {
-                        listener.getLogger().println("Creating property definition for '" + propName + "'");
-                        propClient.createPropDef(propSheetDefUUID,
-                                                 propSheetDefPath,
-                                                 propName,
-                                                 propDescription,
-                                                 propLabel,
-                                                 required,
-                                                 propType,
-                                                 "");
-                        listener.getLogger().println("Setting version property '" + propName + "' to '" + propValue + "'");
-                        verClient.setVersionProperty(version, component, propName, propValue, false);
-                        listener.getLogger().println("Successfully set version property");
-                    }
-                    catch (IOException ex) {
-                        throw new AbortException("An error occurred while setting the version property: " + ex.getMessage());
-                    }
-                    catch (JSONException ex) {
-                        throw new AbortException("An error occurred while processing the JSON object for the property: " +
-                                                 ex.getMessage());
-                    }
-                }
+            if (!missingPropNames.isEmpty()) {
+                propertyHelper.createPropDefs(component, propSheetDef, missingPropNames);
             }
+
+            // set all values
+            propertyHelper.setVersionProperties(component, version, versionId, properties);
         }
     }
 }
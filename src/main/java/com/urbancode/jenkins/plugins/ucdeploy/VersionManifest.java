@@ -0,0 +1,162 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class records the content hashes of the files pushed to a component
+ * version, so that the next push of the component can upload only the files
+ * that are new or changed since that version
+ *
+ */
+public class VersionManifest {
+    private static final String ENCODING = "UTF-8";
+    private static final String VERSION_KEY = "version";
+
+    private String versionId;
+    private Map<String, String> hashes;
+
+    public VersionManifest(String versionId, Map<String, String> hashes) {
+        this.versionId = versionId;
+        this.hashes = hashes;
+    }
+
+    public String getVersionId() {
+        return versionId;
+    }
+
+    public Map<String, String> getHashes() {
+        return hashes;
+    }
+
+    /**
+     * Get the manifest file of a component, kept beside the workspace so that it
+     * is never matched by the upload patterns
+     *
+     * @param workspace The workspace of the build
+     * @param component The name of the component
+     * @return The manifest file
+     */
+    public static File getManifestFile(File workspace, String component) {
+        return new File(UploadHelper.getStateDir(workspace), UploadHelper.toFileName(component) + ".manifest");
+    }
+
+    /**
+     * Select the files whose content differs from this manifest
+     *
+     * @param currentHashes The hashes of the files about to be pushed
+     * @return The relative paths of the new or changed files
+     */
+    public List<String> getChangedFiles(Map<String, String> currentHashes) {
+        List<String> changed = new ArrayList<String>();
+
+        for (Map.Entry<String, String> entry : currentHashes.entrySet()) {
+            if (!entry.getValue().equals(hashes.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Load a manifest from disk
+     *
+     * @param file The manifest file
+     * @return The manifest, or null if the file does not exist
+     * @throws IOException
+     */
+    public static VersionManifest load(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        String versionId = null;
+        Map<String, String> hashes = new HashMap<String, String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int delim = line.indexOf('\t');
+
+                if (delim <= 0) {
+                    continue;
+                }
+
+                String key = line.substring(0, delim);
+                String value = line.substring(delim + 1);
+
+                if (versionId == null && key.equals(VERSION_KEY)) {
+                    versionId = value;
+                }
+                else {
+                    hashes.put(value, key);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+
+        if (versionId == null) {
+            return null;
+        }
+
+        return new VersionManifest(versionId, hashes);
+    }
+
+    /**
+     * Write the manifest to disk, replacing any previous manifest
+     *
+     * @param file The manifest file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        File dir = file.getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir.getAbsolutePath());
+        }
+
+        File tempFile = new File(dir, file.getName() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), ENCODING));
+
+        try {
+            writer.write(VERSION_KEY + "\t" + versionId);
+            writer.newLine();
+
+            for (Map.Entry<String, String> entry : hashes.entrySet()) {
+                writer.write(entry.getValue() + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace " + file.getAbsolutePath());
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to write " + file.getAbsolutePath());
+        }
+    }
+}
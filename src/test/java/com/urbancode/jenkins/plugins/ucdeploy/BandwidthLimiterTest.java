@@ -0,0 +1,54 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that a job's limit nests under its server's limit without changing it
+ *
+ */
+public class BandwidthLimiterTest {
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @Test
+    public void jobLimitsDoNotChangeTheServerLimit() {
+        BandwidthLimiter server = BandwidthLimiter.forServer("https://ucd-limit-a:8443", 4);
+        BandwidthLimiter slowJob = BandwidthLimiter.forUpload(server, 1);
+        BandwidthLimiter fastJob = BandwidthLimiter.forUpload(server, 16);
+
+        assertSame(server, BandwidthLimiter.forServer("https://ucd-limit-a:8443", 4));
+        assertEquals(4 * MEGABYTE, server.getBytesPerSecond());
+        assertEquals(1 * MEGABYTE, slowJob.getBytesPerSecond());
+        assertEquals("A job raised its rate above the server's limit", 4 * MEGABYTE, fastJob.getBytesPerSecond());
+    }
+
+    @Test
+    public void jobWithoutServerLimitIsHeldToItsOwnRate() {
+        BandwidthLimiter job = BandwidthLimiter.forUpload(null, 2);
+
+        assertEquals(2 * MEGABYTE, job.getBytesPerSecond());
+    }
+
+    @Test
+    public void uploadsWaitForBothBuckets() throws Exception {
+        BandwidthLimiter server = BandwidthLimiter.forServer("https://ucd-limit-b:8443", 1);
+        BandwidthLimiter job = BandwidthLimiter.forUpload(server, 2);
+
+        // the first second of data is a burst both buckets allow
+        assertEquals(0L, job.acquire((int) MEGABYTE));
+
+        // the next half megabyte is held back by the server's slower bucket
+        long waited = job.acquire((int) (MEGABYTE / 2));
+        assertTrue("Waited only " + waited + " ns", waited >= 300000000L);
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks the changes worked out to bring a snapshot to the wanted versions
+ *
+ */
+public class DeployHelperTest {
+    private Map<String, List<String>> wanted = new LinkedHashMap<String, List<String>>();
+    private Map<String, Map<String, String>> current = new LinkedHashMap<String, Map<String, String>>();
+
+    @Test
+    public void unchangedSnapshotNeedsNoChanges() {
+        wanted.put("web", Arrays.asList("1.0"));
+        inSnapshot("web", "1.0", "id-web-1.0");
+
+        assertTrue(DeployHelper.diffSnapshot(wanted, current).isEmpty());
+    }
+
+    @Test
+    public void replacedVersionIsRemovedBeforeTheNewOneIsAdded() {
+        wanted.put("web", Arrays.asList("2.0"));
+        inSnapshot("web", "1.0", "id-web-1.0");
+
+        List<DeployHelper.SnapshotChange> changes = DeployHelper.diffSnapshot(wanted, current);
+
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), "web", "1.0", true);
+        assertChange(changes.get(1), "web", "2.0", false);
+    }
+
+    @Test
+    public void componentsMissingFromTheSnapshotAreAdded() {
+        wanted.put("db", Arrays.asList("3.1", "3.2"));
+
+        List<DeployHelper.SnapshotChange> changes = DeployHelper.diffSnapshot(wanted, current);
+
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), "db", "3.1", false);
+        assertChange(changes.get(1), "db", "3.2", false);
+    }
+
+    @Test
+    public void duplicateWantedVersionsAreAddedOnce() {
+        wanted.put("web", Arrays.asList("2.0", "2.0"));
+
+        List<DeployHelper.SnapshotChange> changes = DeployHelper.diffSnapshot(wanted, current);
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), "web", "2.0", false);
+    }
+
+    @Test
+    public void unlistedComponentsKeepTheirVersions() {
+        wanted.put("web", Arrays.asList("2.0", "1.0"));
+        inSnapshot("web", "1.0", "id-web-1.0");
+        inSnapshot("web", "0.9", "id-web-0.9");
+        inSnapshot("db", "3.0", "id-db-3.0");
+
+        List<DeployHelper.SnapshotChange> changes = DeployHelper.diffSnapshot(wanted, current);
+
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), "web", "0.9", true);
+        assertChange(changes.get(1), "web", "2.0", false);
+    }
+
+    private void inSnapshot(String component, String version, String versionId) {
+        Map<String, String> versions = current.get(component);
+
+        if (versions == null) {
+            versions = new LinkedHashMap<String, String>();
+            current.put(component, versions);
+        }
+
+        versions.put(version, versionId);
+    }
+
+    private static void assertChange(DeployHelper.SnapshotChange change, String component, String version, boolean removal) {
+        assertEquals(component, change.getComponent());
+        assertEquals(version, change.getVersion());
+        assertEquals(removal, change.isRemoval());
+    }
+}
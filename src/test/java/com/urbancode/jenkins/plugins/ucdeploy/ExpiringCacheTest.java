@@ -0,0 +1,182 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Checks the expiry of cached values and the snapshots carried between JVMs
+ *
+ */
+public class ExpiringCacheTest {
+    private static final String SERVER_A = "https://ucd-a:8443|";
+    private static final String SERVER_B = "https://ucd-b:8443|";
+
+    @Test
+    public void valuesExpireAfterTheirTimeToLive() throws Exception {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        cache.put("long", "kept");
+        cache.put("short", "dropped", 1, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(20);
+
+        assertEquals("kept", cache.get("long"));
+        assertNull(cache.get("short"));
+    }
+
+    @Test
+    public void aTimeToLiveOfZeroIsNotCached() {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        cache.put("key", "value", 0, TimeUnit.SECONDS);
+
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void invalidateAndClearDropValues() {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        cache.put("a", "1");
+        cache.put("b", "2");
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+
+        cache.clear();
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void snapshotCopiesOnlyLiveEntriesOfOneServer() throws Exception {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        cache.put(SERVER_A + "c1", "id1");
+        cache.put(SERVER_A + "c2", "id2", 1, TimeUnit.MILLISECONDS);
+        cache.put(SERVER_B + "c1", "id3");
+
+        Thread.sleep(20);
+        ExpiringCache.Snapshot<String, String> snapshot = cache.snapshot(SERVER_A);
+
+        assertEquals(1, snapshot.getKeys().size());
+        assertEquals("id1", snapshot.get(SERVER_A + "c1"));
+    }
+
+    @Test
+    public void mergeKeepsTheLongerLivedEntryOfEachKey() throws Exception {
+        ExpiringCache<String, String> controller = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        controller.put(SERVER_A + "c1", "id1");
+        controller.put(SERVER_A + "c2", "fresh", 1, TimeUnit.MILLISECONDS);
+
+        ExpiringCache<String, String> node = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        node.put(SERVER_A + "c1", "leftover", 1, TimeUnit.MINUTES);
+        node.put(SERVER_A + "c2", "leftover");
+        node.put(SERVER_B + "c1", "other");
+
+        node.merge(roundTrip(controller.snapshot(SERVER_A)));
+
+        assertEquals("id1", node.get(SERVER_A + "c1"));
+        assertEquals("leftover", node.get(SERVER_A + "c2"));
+        assertEquals("other", node.get(SERVER_B + "c1"));
+    }
+
+    @Test
+    public void updateAppliesLookupsAndInvalidationsMadeElsewhere() throws Exception {
+        ExpiringCache<String, String> controller = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        controller.put(SERVER_A + "kept", "1");
+        controller.put(SERVER_A + "invalidated", "2");
+        ExpiringCache.Snapshot<String, String> original = controller.snapshot(SERVER_A);
+
+        ExpiringCache<String, String> node = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        node.merge(roundTrip(original));
+        node.invalidate(SERVER_A + "invalidated");
+        node.put(SERVER_A + "looked up", "3");
+
+        // cached on the controller by another build while the node was busy
+        controller.put(SERVER_A + "concurrent", "4");
+        controller.update(original, roundTrip(node.snapshot(SERVER_A)));
+
+        assertEquals("1", controller.get(SERVER_A + "kept"));
+        assertNull(controller.get(SERVER_A + "invalidated"));
+        assertEquals("3", controller.get(SERVER_A + "looked up"));
+        assertEquals("4", controller.get(SERVER_A + "concurrent"));
+    }
+
+    @Test
+    public void updateKeepsEntriesCachedAgainSinceTheSnapshot() throws Exception {
+        ExpiringCache<String, String> controller = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        controller.put(SERVER_A + "c1", "old");
+        ExpiringCache.Snapshot<String, String> original = controller.snapshot(SERVER_A);
+
+        ExpiringCache<String, String> node = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        node.merge(roundTrip(original));
+        node.invalidate(SERVER_A + "c1");
+
+        // looked up again on the controller by another build while the node was busy
+        controller.put(SERVER_A + "c1", "new");
+        controller.update(original, roundTrip(node.snapshot(SERVER_A)));
+
+        assertEquals("new", controller.get(SERVER_A + "c1"));
+    }
+
+    @Test
+    public void entriesThatExpiredElsewhereAreNotTreatedAsInvalidated() throws Exception {
+        ExpiringCache<String, String> controller = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        controller.put(SERVER_A + "short", "1", 20, TimeUnit.MILLISECONDS);
+        ExpiringCache.Snapshot<String, String> original = controller.snapshot(SERVER_A);
+
+        ExpiringCache<String, String> node = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        node.merge(roundTrip(original));
+
+        Thread.sleep(50);
+        controller.put(SERVER_A + "short", "2");
+        controller.update(original, roundTrip(node.snapshot(SERVER_A)));
+
+        assertEquals("2", controller.get(SERVER_A + "short"));
+    }
+
+    @Test
+    public void snapshotsKeepTheRemainingTimeToLive() throws Exception {
+        ExpiringCache<String, String> cache = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        cache.put(SERVER_A + "short", "value", 50, TimeUnit.MILLISECONDS);
+
+        ExpiringCache<String, String> copy = new ExpiringCache<String, String>(1, TimeUnit.HOURS);
+        copy.merge(roundTrip(cache.snapshot(SERVER_A)));
+        assertEquals("value", copy.get(SERVER_A + "short"));
+
+        Thread.sleep(100);
+        assertNull(copy.get(SERVER_A + "short"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> ExpiringCache.Snapshot<K, V> roundTrip(ExpiringCache.Snapshot<K, V> snapshot)
+    throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(snapshot);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        try {
+            Object copy = in.readObject();
+            assertTrue(copy instanceof ExpiringCache.Snapshot);
+            return (ExpiringCache.Snapshot<K, V>) copy;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
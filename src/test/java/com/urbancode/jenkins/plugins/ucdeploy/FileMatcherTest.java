@@ -0,0 +1,152 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the include and exclude patterns and the walk of a directory tree
+ *
+ */
+public class FileMatcherTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void noIncludesMatchesEveryFile() {
+        FileMatcher matcher = new FileMatcher(new String[0], new String[0]);
+
+        assertTrue(matcher.matches("a.jar"));
+        assertTrue(matcher.matches("lib/deep/b.jar"));
+    }
+
+    @Test
+    public void wildcardsMatchWithinOneDirectory() {
+        FileMatcher matcher = new FileMatcher(new String[] {"*.jar", "lib/?.war"}, new String[0]);
+
+        assertTrue(matcher.matches("app.jar"));
+        assertFalse(matcher.matches("lib/app.jar"));
+        assertTrue(matcher.matches("lib/a.war"));
+        assertFalse(matcher.matches("lib/ab.war"));
+        assertFalse(matcher.matches("app.jar.bak"));
+    }
+
+    @Test
+    public void deepWildcardMatchesAnyNumberOfDirectories() {
+        FileMatcher matcher = new FileMatcher(new String[] {"**/*.jar", "conf/**"}, new String[0]);
+
+        assertTrue(matcher.matches("app.jar"));
+        assertTrue(matcher.matches("lib/ext/app.jar"));
+        assertTrue(matcher.matches("conf/app.properties"));
+        assertTrue(matcher.matches("conf/env/prod.properties"));
+        assertFalse(matcher.matches("lib/app.war"));
+    }
+
+    @Test
+    public void excludesWinOverIncludes() {
+        FileMatcher matcher = new FileMatcher(new String[] {"**"}, new String[] {"**/*.tmp", "build/**"});
+
+        assertTrue(matcher.matches("lib/app.jar"));
+        assertFalse(matcher.matches("lib/app.tmp"));
+        assertFalse(matcher.matches("build/classes/App.class"));
+    }
+
+    @Test
+    public void antDefaultExcludesApplyUnlessTurnedOff() {
+        FileMatcher withDefaults = new FileMatcher(new String[0], new String[0]);
+        FileMatcher withoutDefaults = new FileMatcher(new String[0], new String[0], false);
+
+        assertFalse(withDefaults.matches(".git/config"));
+        assertFalse(withDefaults.matches("src/.svn/entries"));
+        assertFalse(withDefaults.matches("notes.txt~"));
+        assertTrue(withoutDefaults.matches(".git/config"));
+        assertTrue(withoutDefaults.matches("notes.txt~"));
+    }
+
+    @Test
+    public void walkVisitsOnlyMatchedFiles() throws IOException {
+        File base = folder.getRoot();
+        touch(base, "app.jar");
+        touch(base, "readme.txt");
+        touch(base, "lib/ext/util.jar");
+        touch(base, "build/tmp/stale.jar");
+        touch(base, ".git/objects/pack.jar");
+
+        FileMatcher matcher = new FileMatcher(new String[] {"**/*.jar"}, new String[] {"build/**"});
+        final List<String> visited = new ArrayList<String>();
+
+        int matched = matcher.walk(base, new FileMatcher.MatchVisitor() {
+            @Override
+            public void visitFile(String relativePath, BasicFileAttributes attributes) {
+                visited.add(relativePath);
+            }
+
+            @Override
+            public void leaveDirectory(String relativeDir) {
+            }
+        });
+
+        Collections.sort(visited);
+        assertEquals(2, matched);
+        assertEquals(2, visited.size());
+        assertEquals("app.jar", visited.get(0));
+        assertEquals("lib/ext/util.jar", visited.get(1));
+    }
+
+    @Test
+    public void directoriesAreLeftAfterAllTheirFiles() throws IOException {
+        File base = folder.getRoot();
+        touch(base, "a.txt");
+        touch(base, "lib/b.jar");
+        touch(base, "lib/ext/c.jar");
+        touch(base, "lib/z.jar");
+        touch(base, "build/d.jar");
+
+        FileMatcher matcher = new FileMatcher(new String[0], new String[] {"build/**"});
+        final List<String> events = new ArrayList<String>();
+
+        matcher.walk(base, new FileMatcher.MatchVisitor() {
+            @Override
+            public void visitFile(String relativePath, BasicFileAttributes attributes) {
+                events.add(relativePath);
+            }
+
+            @Override
+            public void leaveDirectory(String relativeDir) {
+                events.add("leave:" + relativeDir);
+            }
+        });
+
+        assertEquals(7, events.size());
+        assertFalse("A pruned directory was walked", events.contains("leave:build"));
+        assertEquals("leave:", events.get(events.size() - 1));
+        assertTrue(events.indexOf("lib/b.jar") < events.indexOf("leave:lib"));
+        assertTrue(events.indexOf("lib/z.jar") < events.indexOf("leave:lib"));
+        assertTrue(events.indexOf("lib/ext/c.jar") < events.indexOf("leave:lib/ext"));
+        assertTrue(events.indexOf("leave:lib/ext") < events.indexOf("leave:lib"));
+    }
+
+    private static void touch(File base, String relativePath) throws IOException {
+        File file = new File(base, relativePath);
+        file.getParentFile().mkdirs();
+        assertTrue(file.createNewFile());
+    }
+}
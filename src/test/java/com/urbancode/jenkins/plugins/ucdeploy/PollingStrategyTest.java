@@ -0,0 +1,100 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks the backoff, reset and jitter of the waits between status checks
+ *
+ */
+public class PollingStrategyTest {
+    @Test
+    public void backsOffAfterTheFastChecksUpToTheCap() {
+        PollingStrategy strategy = new PollingStrategy(1000L, 3000L, 60000L, 50, 0);
+
+        assertEquals(1000L, poll(strategy, "EXECUTING"));
+        assertEquals(1000L, poll(strategy, "EXECUTING"));
+        assertEquals(1000L, poll(strategy, "EXECUTING"));
+        assertEquals(1500L, poll(strategy, "EXECUTING"));
+        assertEquals(2250L, poll(strategy, "EXECUTING"));
+        assertEquals(3000L, poll(strategy, "EXECUTING"));
+        assertEquals(3000L, poll(strategy, "EXECUTING"));
+        assertEquals(7, strategy.getPolls());
+    }
+
+    @Test
+    public void aChangedStateStartsTheBackoffOver() {
+        PollingStrategy strategy = new PollingStrategy(1000L, 30000L, 60000L, 100, 0);
+
+        for (int i = 0; i < 6; i++) {
+            poll(strategy, "EXECUTING");
+        }
+        assertTrue(poll(strategy, "EXECUTING") > 1000L);
+
+        assertEquals(1000L, poll(strategy, "AWAITING APPROVAL"));
+    }
+
+    @Test
+    public void aMissingStateKeepsTheBackoff() {
+        PollingStrategy strategy = new PollingStrategy(1000L, 30000L, 60000L, 100, 0);
+
+        for (int i = 0; i < 5; i++) {
+            poll(strategy, "EXECUTING");
+        }
+
+        assertEquals(8000L, poll(strategy, null));
+    }
+
+    @Test
+    public void scheduledRequestsWaitTheScheduledInterval() {
+        PollingStrategy strategy = new PollingStrategy(1000L, 30000L, 60000L, 50, 0);
+
+        assertEquals(60000L, poll(strategy, "SCHEDULED FOR FUTURE"));
+        assertEquals(60000L, poll(strategy, "scheduled for future"));
+        assertEquals(1000L, poll(strategy, "EXECUTING"));
+    }
+
+    @Test
+    public void jitterStaysWithinItsPercentage() {
+        PollingStrategy strategy = new PollingStrategy(1000L, 1000L, 60000L, 0, 20);
+
+        for (int i = 0; i < 200; i++) {
+            long delay = poll(strategy, "EXECUTING");
+            assertTrue("Delay " + delay + " is outside the jitter", delay >= 800L && delay <= 1200L);
+        }
+    }
+
+    @Test
+    public void failedChecksBackOffUpToTheCap() {
+        PollingStrategy strategy = new PollingStrategy(1000L, 5000L, 60000L, 50, 0);
+
+        assertEquals(2000L, strategy.failureDelay(1));
+        assertEquals(4000L, strategy.failureDelay(2));
+        assertEquals(5000L, strategy.failureDelay(3));
+        assertEquals(1000L, poll(strategy, "EXECUTING"));
+    }
+
+    @Test
+    public void invalidSettingsAreClamped() {
+        PollingStrategy strategy = new PollingStrategy(0L, -5L, 0L, -50, 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1L, poll(strategy, "EXECUTING"));
+        }
+        assertEquals(1L, poll(strategy, "SCHEDULED FOR FUTURE"));
+    }
+
+    private static long poll(PollingStrategy strategy, String state) {
+        strategy.recordPoll();
+        return strategy.nextDelay(state);
+    }
+}
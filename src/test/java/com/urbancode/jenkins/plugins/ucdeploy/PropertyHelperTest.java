@@ -0,0 +1,136 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import hudson.model.TaskListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.codehaus.jettison.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the single request property write against a stand-in UCD server
+ *
+ */
+@SuppressWarnings("deprecation") // Triggered by DefaultHttpClient
+public class PropertyHelperTest {
+    private static final UUID VERSION_ID = UUID.fromString("16a5f5a8-6c4d-4f73-9d4a-2f0f31a4d0b1");
+
+    private HttpServer server;
+    private DefaultHttpClient httpClient;
+    private volatile String putPath;
+    private volatile String putBody;
+    private volatile String putVersion;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+
+                if (exchange.getRequestMethod().equals("GET") && path.equals("/rest/deploy/version/" + VERSION_ID)) {
+                    respond(exchange, "{\"id\":\"" + VERSION_ID + "\",\"propSheet\":{\"path\":\"components/c1/versions/" +
+                            VERSION_ID + "/propSheet\"}}");
+                }
+                else if (exchange.getRequestMethod().equals("GET") && path.startsWith("/property/propSheet/")) {
+                    // the stand-in masks secure values the way the server does
+                    respond(exchange, "{\"version\":3,\"properties\":[" +
+                            "{\"name\":\"password\",\"value\":\"****\",\"secure\":true}," +
+                            "{\"name\":\"existing\",\"value\":\"kept\",\"secure\":false}]}");
+                }
+                else if (exchange.getRequestMethod().equals("PUT")) {
+                    putPath = path;
+                    putVersion = exchange.getRequestHeaders().getFirst("Version");
+                    putBody = read(exchange.getRequestBody());
+                    respond(exchange, "");
+                }
+                else {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        httpClient = new DefaultHttpClient();
+    }
+
+    @After
+    public void stopServer() {
+        httpClient.getConnectionManager().shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void onlyTheSetPropertiesAreSent() throws Exception {
+        URI ucdUrl = new URI("http://127.0.0.1:" + server.getAddress().getPort());
+        PropertyHelper propertyHelper = new PropertyHelper(ucdUrl, httpClient, null, null, TaskListener.NULL);
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        properties.put("buildNumber", "42");
+        properties.put("gitCommit", "abc123");
+
+        propertyHelper.setVersionProperties("c1", "1.0", VERSION_ID, properties);
+
+        assertNotNull("No values were written in one request", putBody);
+        assertEquals("/property/propSheet/components&c1&versions&" + VERSION_ID + "&propSheet.-1/propValues", putPath);
+        assertEquals("3", putVersion);
+
+        JSONObject values = new JSONObject(putBody);
+        assertEquals(2, values.length());
+        assertEquals("42", values.getString("buildNumber"));
+        assertEquals("abc123", values.getString("gitCommit"));
+        assertFalse("The masked secure value was written back", values.has("password"));
+        assertFalse("An untouched value was written back", values.has("existing"));
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toString("UTF-8");
+    }
+}
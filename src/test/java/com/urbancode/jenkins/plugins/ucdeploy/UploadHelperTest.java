@@ -0,0 +1,228 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import hudson.AbortException;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.urbancode.jenkins.plugins.ucdeploy.UploadHelper.UploadUnit;
+
+/**
+ * Checks the split of the matched files into work units and the retry of
+ * failed units, with the REST call of each unit replaced by a stand-in
+ *
+ */
+public class UploadHelperTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void unitsHoldFilesOfOneDirectoryUpToTheLimit() {
+        List<UploadUnit> units = UploadHelper.createUnits(
+                Arrays.asList("a.txt", "lib/c.jar", "b.txt", "lib/d.jar", "lib/e.jar", "lib/ext/f.jar"), 2);
+
+        assertEquals(4, units.size());
+        assertUnit(units.get(0), "", "a.txt", "b.txt");
+        assertUnit(units.get(1), "lib", "lib/c.jar", "lib/d.jar");
+        assertUnit(units.get(2), "lib", "lib/e.jar");
+        assertUnit(units.get(3), "lib/ext", "lib/ext/f.jar");
+    }
+
+    @Test
+    public void splitterHandsOnUnitsAsSoonAsTheyAreComplete() throws Exception {
+        final List<UploadUnit> ready = new ArrayList<UploadUnit>();
+        UploadHelper.UnitSplitter splitter = new UploadHelper.UnitSplitter(2) {
+            @Override
+            protected void unitReady(UploadUnit unit) {
+                ready.add(unit);
+            }
+        };
+
+        splitter.addFile("lib/a.jar");
+        splitter.addFile("lib/ext/b.jar");
+        assertTrue(ready.isEmpty());
+
+        splitter.addFile("lib/c.jar");
+        assertEquals(1, ready.size());
+        assertUnit(ready.get(0), "lib", "lib/a.jar", "lib/c.jar");
+
+        splitter.addFile("lib/d.jar");
+        splitter.endDirectory("lib/ext");
+        assertEquals(2, ready.size());
+        assertUnit(ready.get(1), "lib/ext", "lib/ext/b.jar");
+
+        splitter.flush();
+        assertEquals(3, ready.size());
+        assertUnit(ready.get(2), "lib", "lib/d.jar");
+    }
+
+    @Test
+    public void unitsSubmittedWhileMatchingAreAllUploaded() throws Exception {
+        File base = createFiles("a.txt", "b.txt", "c.txt", "d.txt", "e.txt");
+        StandInUploadHelper helper = new StandInUploadHelper(0);
+
+        helper.start(base, "c1", "1.0");
+        try {
+            for (UploadUnit unit : UploadHelper.createUnits(Arrays.asList("a.txt", "b.txt", "c.txt", "d.txt", "e.txt"), 1)) {
+                helper.submit(unit);
+            }
+            TransferReport report = helper.finish();
+
+            assertEquals(5, helper.getSubmittedCount());
+            assertEquals(5, report.getFileCount());
+            assertEquals(5, helper.uploaded.size());
+        }
+        finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void packUnitDeliversThePackedFiles() {
+        File archive = new File(folder.getRoot(), FilePacker.PACK_FILE_NAME);
+        UploadUnit unit = UploadHelper.createPackUnit(archive, Arrays.asList("a.txt", "conf/b.xml"));
+
+        assertEquals("", unit.getOffset());
+        assertEquals(Collections.singletonList(FilePacker.PACK_FILE_NAME), unit.getFileNames());
+        assertEquals(folder.getRoot(), unit.getSourceDir());
+        assertEquals(Arrays.asList("a.txt", "conf/b.xml"), unit.getSourcePaths());
+    }
+
+    @Test
+    public void everyUnitIsUploadedAndConfirmed() throws Exception {
+        File base = createFiles("a.txt", "b.txt", "lib/c.jar");
+        UploadJournal journal = UploadJournal.create(new File(folder.getRoot(), "c1.journal"), "id", "c1", "1.0");
+        StandInUploadHelper helper = new StandInUploadHelper(0);
+        helper.setJournal(journal);
+
+        TransferReport report = helper.uploadUnits(base, "c1", "1.0",
+                UploadHelper.createUnits(Arrays.asList("a.txt", "b.txt", "lib/c.jar"), 250));
+        journal.close();
+
+        assertEquals(2, helper.uploaded.size());
+        assertEquals(3, report.getFileCount());
+        assertEquals(0, report.getRetries());
+        assertTrue(journal.isConfirmed(base, "a.txt"));
+        assertTrue(journal.isConfirmed(base, "lib/c.jar"));
+    }
+
+    @Test
+    public void failedUnitsAreRetried() throws Exception {
+        File base = createFiles("a.txt", "lib/c.jar");
+        StandInUploadHelper helper = new StandInUploadHelper(UploadHelper.UNIT_ATTEMPTS - 1);
+
+        TransferReport report = helper.uploadUnits(base, "c1", "1.0",
+                UploadHelper.createUnits(Arrays.asList("a.txt", "lib/c.jar"), 250));
+
+        assertEquals(2, helper.uploaded.size());
+        assertEquals(2 * (UploadHelper.UNIT_ATTEMPTS - 1), report.getRetries());
+        assertEquals(UploadHelper.UNIT_ATTEMPTS, helper.attempts.get("lib").get());
+    }
+
+    @Test
+    public void unitFailingEveryAttemptFailsTheUpload() throws Exception {
+        File base = createFiles("a.txt");
+        UploadJournal journal = UploadJournal.create(new File(folder.getRoot(), "c1.journal"), "id", "c1", "1.0");
+        StandInUploadHelper helper = new StandInUploadHelper(UploadHelper.UNIT_ATTEMPTS);
+        helper.setJournal(journal);
+
+        try {
+            helper.uploadUnits(base, "c1", "1.0", UploadHelper.createUnits(Arrays.asList("a.txt"), 250));
+            fail("The upload succeeded although the unit never landed");
+        }
+        catch (AbortException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("connection reset"));
+        }
+        finally {
+            journal.close();
+        }
+
+        assertEquals(UploadHelper.UNIT_ATTEMPTS, helper.attempts.get("").get());
+        assertTrue(helper.uploaded.isEmpty());
+        assertEquals(0, journal.getConfirmedCount());
+    }
+
+    @Test
+    public void interruptIsKeptWhenTheUploadIsAborted() throws Exception {
+        File base = createFiles("a.txt");
+        StandInUploadHelper helper = new StandInUploadHelper(0);
+
+        Thread.currentThread().interrupt();
+        try {
+            helper.uploadUnits(base, "c1", "1.0", UploadHelper.createUnits(Arrays.asList("a.txt"), 250));
+            fail("The interrupted upload was not aborted");
+        }
+        catch (AbortException ex) {
+            assertTrue("The interrupt flag was cleared", Thread.interrupted());
+        }
+    }
+
+    private File createFiles(String... relativePaths) throws IOException {
+        File base = folder.newFolder("base");
+
+        for (String path : relativePaths) {
+            File file = new File(base, path);
+            file.getParentFile().mkdirs();
+            assertTrue(file.createNewFile());
+        }
+
+        return base;
+    }
+
+    private static void assertUnit(UploadUnit unit, String offset, String... relativePaths) {
+        assertEquals(offset, unit.getOffset());
+        assertNull(unit.getSourceDir());
+        assertEquals(Arrays.asList(relativePaths), unit.getRelativePaths());
+    }
+
+    /**
+     * Fails the first attempts of every unit, then records the unit as uploaded
+     */
+    private static class StandInUploadHelper extends UploadHelper {
+        private int failures;
+        private ConcurrentHashMap<String, AtomicInteger> attempts = new ConcurrentHashMap<String, AtomicInteger>();
+        private List<String> uploaded = Collections.synchronizedList(new ArrayList<String>());
+
+        public StandInUploadHelper(int failures) throws Exception {
+            super(new URI("http://127.0.0.1"), new ClientPool(null, null, 2), TaskListener.NULL);
+            this.failures = failures;
+            setRetryDelay(0);
+        }
+
+        @Override
+        void uploadUnit(File base, String component, String version, UploadUnit unit) throws Exception {
+            AtomicInteger unitAttempts = new AtomicInteger();
+            AtomicInteger previous = attempts.putIfAbsent(unit.getOffset(), unitAttempts);
+
+            if ((previous != null ? previous : unitAttempts).incrementAndGet() <= failures) {
+                throw new IOException("connection reset");
+            }
+
+            uploaded.add(unit.getOffset());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * (c) Copyright IBM Corporation 2017.
+ * This is licensed under the following license.
+ * The Apache License, Version 2.0 (http://www.apache.org/licenses/LICENSE-2.0)
+ * U.S. Government Users Restricted Rights:  Use, duplication or disclosure restricted by GSA ADP Schedule Contract with IBM Corp.
+ */
+
+package com.urbancode.jenkins.plugins.ucdeploy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a journal written by an interrupted upload resumes with the
+ * files the server confirmed
+ *
+ */
+public class UploadJournalTest {
+    private static final String VERSION_ID = "16a5f5a8-6c4d-4f73-9d4a-2f0f31a4d0b1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File base;
+    private File journalFile;
+
+    @Before
+    public void createFiles() throws IOException {
+        base = folder.newFolder("base");
+        journalFile = new File(folder.getRoot(), "state/c1.journal");
+        write(new File(base, "app.jar"), "app");
+        write(new File(base, "lib/util.jar"), "util");
+        write(new File(base, "readme.txt"), "readme");
+    }
+
+    @Test
+    public void resumeReadsTheVersionAndConfirmedFiles() throws IOException {
+        UploadJournal journal = UploadJournal.create(journalFile, VERSION_ID, "c1", "1.0\tbuild 7");
+        journal.confirm(base, Arrays.asList("app.jar", "lib/util.jar"));
+        journal.close();
+
+        UploadJournal resumed = UploadJournal.resume(journalFile);
+        try {
+            assertNotNull(resumed);
+            assertEquals(VERSION_ID, resumed.getVersionId());
+            assertEquals("c1", resumed.getComponentName());
+            assertEquals("1.0\tbuild 7", resumed.getVersionName());
+            assertEquals(2, resumed.getConfirmedCount());
+            assertTrue(resumed.isConfirmed(base, "app.jar"));
+            assertTrue(resumed.isConfirmed(base, "lib/util.jar"));
+            assertFalse(resumed.isConfirmed(base, "readme.txt"));
+        }
+        finally {
+            resumed.close();
+        }
+    }
+
+    @Test
+    public void resumedJournalKeepsRecording() throws IOException {
+        UploadJournal journal = UploadJournal.create(journalFile, VERSION_ID, "c1", "1.0");
+        journal.confirm(base, Arrays.asList("app.jar"));
+        journal.close();
+
+        journal = UploadJournal.resume(journalFile);
+        journal.confirm(base, Arrays.asList("readme.txt"));
+        journal.close();
+
+        journal = UploadJournal.resume(journalFile);
+        try {
+            assertEquals(2, journal.getConfirmedCount());
+            assertTrue(journal.isConfirmed(base, "app.jar"));
+            assertTrue(journal.isConfirmed(base, "readme.txt"));
+        }
+        finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void changedFilesAreNotConfirmed() throws IOException {
+        UploadJournal journal = UploadJournal.create(journalFile, VERSION_ID, "c1", "1.0");
+        journal.confirm(base, Arrays.asList("app.jar"));
+        journal.close();
+
+        write(new File(base, "app.jar"), "a rebuilt app");
+
+        journal = UploadJournal.resume(journalFile);
+        try {
+            assertFalse(journal.isConfirmed(base, "app.jar"));
+        }
+        finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void partiallyWrittenLineIsIgnored() throws IOException {
+        UploadJournal journal = UploadJournal.create(journalFile, VERSION_ID, "c1", "1.0");
+        journal.confirm(base, Arrays.asList("app.jar"));
+        journal.close();
+        append(journalFile, "12");
+
+        journal = UploadJournal.resume(journalFile);
+        try {
+            assertEquals(1, journal.getConfirmedCount());
+        }
+        finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void unusableJournalsAreNotResumed() throws IOException {
+        assertNull(UploadJournal.resume(journalFile));
+
+        journalFile.getParentFile().mkdirs();
+        write(journalFile, "version\t" + VERSION_ID + "\t1.0\n");
+        assertNull("A journal without the component was resumed", UploadJournal.resume(journalFile));
+
+        write(journalFile, "");
+        assertNull(UploadJournal.resume(journalFile));
+    }
+
+    @Test
+    public void deleteRemovesTheJournal() throws IOException {
+        UploadJournal journal = UploadJournal.create(journalFile, VERSION_ID, "c1", "1.0");
+        journal.confirm(base, Arrays.asList("app.jar"));
+        journal.delete();
+
+        assertFalse(journalFile.exists());
+        assertNull(UploadJournal.resume(journalFile));
+    }
+
+    private static void write(File file, String text) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file, false);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void append(File file, String text) throws IOException {
+        OutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+}